@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+
+/**
+ * Reads examples block by block into reusable batches.
+ *
+ * <p>Like the example iterator of Data, read errors are reported on stderr and end the stream.
+ */
+public interface BatchReader<T> {
+
+  /**
+   * Overwrites the batch with the next examples of the stream. The batch size is set to the
+   * number of examples that were read.
+   *
+   * @param batch the batch to fill
+   * @param max the maximal number of examples to read, at most the capacity of the batch
+   * @return the number of examples read, 0 when the stream is exhausted
+   */
+  int read(ExampleBatch<T> batch, int max);
+
+  /** Closes the opened data file (if any). */
+  void close();
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * The nodes of a Vfdt laid out in flat arrays, to sort test examples without following references.
+ *
+ * <p>Node 0 is the root. A node that has been split stores its split feature and the index of its
+ * child for value 0 and its number of children, the other children follow the first, so the child
+ * for value v is firstChild + v. A leaf has split feature -1. The nodes themselves are kept for their counts.
+ *
+ * <p>A split is added with extend(), which appends the children of the split node, so the tree does
+ * not have to be laid out again. The arrays are only changed by extend(), which is not thread safe.
+ */
+public class CompiledTree {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private int[] splitFeatures; /* -1 for a leaf */
+  private int[] firstChildren;
+  private int[] nbChildren;
+  private boolean[] mature; /* the node has more than minExamples examples, that does not change */
+  private VfdtNode[] nodes;
+  private int size = 0;
+
+  private final int minExamples;
+  private final IdentityHashMap<VfdtNode, Integer> leafIndices =
+      new IdentityHashMap<VfdtNode, Integer>();
+
+  /**
+   * Lays out the tree.
+   *
+   * @param root the root of the tree
+   * @param minExamples sorting stops at a node whose child has at most this many examples
+   */
+  public CompiledTree(VfdtNode root, int minExamples) {
+    this.minExamples = minExamples;
+    this.splitFeatures = new int[INITIAL_CAPACITY];
+    this.firstChildren = new int[INITIAL_CAPACITY];
+    this.nbChildren = new int[INITIAL_CAPACITY];
+    this.mature = new boolean[INITIAL_CAPACITY];
+    this.nodes = new VfdtNode[INITIAL_CAPACITY];
+    append(root);
+  }
+
+  /**
+   * Adds the children of a node that was a leaf when it was laid out, and of their children.
+   * Nothing happens for a node that is not a leaf of this tree, e.g. when its split was already
+   * seen while laying out.
+   *
+   * @param node a node that has been split
+   */
+  public void extend(VfdtNode node) {
+    Integer index = leafIndices.get(node);
+    if (index != null && node.getChildren() != null) {
+      leafIndices.remove(node);
+      appendChildren(index);
+    }
+  }
+
+  /**
+   * Sorts an example to the node that predicts it: the deepest node on its path whose examples
+   * are more than minExamples, or the root.
+   *
+   * @param example the values of the features
+   * @return the index of the node
+   * @throws ArrayIndexOutOfBoundsException if the example has a value without a child at a node on
+   *     its path
+   */
+  public int route(int[] example) {
+    int[] splitFeatures = this.splitFeatures;
+    int[] firstChildren = this.firstChildren;
+    int[] nbChildren = this.nbChildren;
+    boolean[] mature = this.mature;
+    int node = 0;
+    int feature;
+    while ((feature = splitFeatures[node]) >= 0) {
+      int value = example[feature];
+      // the children of other nodes follow this node's, so an unknown value would land on them
+      if (value < 0 || value >= nbChildren[node]) throw new ArrayIndexOutOfBoundsException(value);
+      int child = firstChildren[node] + value;
+      if (!mature[child]) {
+        if (nodes[child].getNbExamples() <= minExamples) break;
+        mature[child] = true;
+      }
+      node = child;
+    }
+    return node;
+  }
+
+  /**
+   * @param index the index of a node
+   * @return the node
+   */
+  public VfdtNode nodeAt(int index) {
+    return nodes[index];
+  }
+
+  /** @return the number of nodes */
+  public int size() {
+    return size;
+  }
+
+  /** Appends a node, and its children if it has been split already. */
+  private void append(VfdtNode node) {
+    if (size == nodes.length) grow();
+    int index = size++;
+    nodes[index] = node;
+    mature[index] = node.getNbExamples() > minExamples;
+    splitFeatures[index] = -1;
+    if (node.getChildren() == null) {
+      leafIndices.put(node, index);
+    } else {
+      appendChildren(index);
+    }
+  }
+
+  private void appendChildren(int index) {
+    VfdtNode[] children = nodes[index].getChildren();
+    int firstChild = size;
+    for (VfdtNode child : children) {
+      if (size == nodes.length) grow();
+      nodes[size] = child;
+      mature[size] = child.getNbExamples() > minExamples;
+      splitFeatures[size] = -1;
+      size++;
+    }
+    firstChildren[index] = firstChild;
+    nbChildren[index] = children.length;
+    splitFeatures[index] = nodes[index].getSplitFeature();
+
+    // the children are consecutive, their own children come after all of them
+    for (int i = 0; i < children.length; i++) {
+      if (children[i].getChildren() == null) {
+        leafIndices.put(children[i], firstChild + i);
+      } else {
+        appendChildren(firstChild + i);
+      }
+    }
+  }
+
+  private void grow() {
+    int capacity = 2 * nodes.length;
+    splitFeatures = Arrays.copyOf(splitFeatures, capacity);
+    firstChildren = Arrays.copyOf(firstChildren, capacity);
+    nbChildren = Arrays.copyOf(nbChildren, capacity);
+    mature = Arrays.copyOf(mature, capacity);
+    nodes = Arrays.copyOf(nodes, capacity);
+  }
+}
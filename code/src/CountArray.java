@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+
+/**
+ * An array of counts that only takes as many bytes per count as its largest count needs.
+ *
+ * <p>The counts start as unsigned bytes. When a count would overflow, the whole array is promoted
+ * in place to unsigned shorts, then to ints and finally to longs. Most counts of a leaf stay small,
+ * and the counts of a leaf that sees a very long stream do not wrap around.
+ */
+public class CountArray {
+
+  private byte[] bytes; /* unsigned, until a count exceeds 255 */
+  private char[] chars; /* until a count exceeds 65535 */
+  private int[] ints; /* until a count exceeds Integer.MAX_VALUE */
+  private long[] longs;
+  private int width = 1; /* bytes per count */
+
+  /** @param size the number of counts, all 0 */
+  public CountArray(int size) {
+    this.bytes = new byte[size];
+  }
+
+  public int size() {
+    switch (width) {
+      case 1:
+        return bytes.length;
+      case 2:
+        return chars.length;
+      case 4:
+        return ints.length;
+      default:
+        return longs.length;
+    }
+  }
+
+  /** @return the number of bytes per count */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @param i an index
+   * @return the count at the index
+   */
+  public long get(int i) {
+    switch (width) {
+      case 1:
+        return bytes[i] & 0xFF;
+      case 2:
+        return chars[i];
+      case 4:
+        return ints[i];
+      default:
+        return longs[i];
+    }
+  }
+
+  /**
+   * Adds one to a count, promotes the array if the count does not fit anymore.
+   *
+   * @param i an index
+   */
+  public void increment(int i) {
+    switch (width) {
+      case 1:
+        if (bytes[i] != (byte) 0xFF) {
+          bytes[i]++;
+          return;
+        }
+        break;
+      case 2:
+        if (chars[i] != Character.MAX_VALUE) {
+          chars[i]++;
+          return;
+        }
+        break;
+      case 4:
+        if (ints[i] != Integer.MAX_VALUE) {
+          ints[i]++;
+          return;
+        }
+        break;
+      default:
+        longs[i]++;
+        return;
+    }
+    promote();
+    increment(i);
+  }
+
+  /**
+   * Adds to a count, promotes the array until the count fits.
+   *
+   * @param i an index
+   * @param n the number to add, at least 0
+   */
+  public void add(int i, long n) {
+    long count = get(i) + n;
+    while (count > maxOf(width)) promote();
+    switch (width) {
+      case 1:
+        bytes[i] = (byte) count;
+        break;
+      case 2:
+        chars[i] = (char) count;
+        break;
+      case 4:
+        ints[i] = (int) count;
+        break;
+      default:
+        longs[i] = count;
+    }
+  }
+
+  /** @return a copy with the same counts and the same width */
+  public CountArray copy() {
+    CountArray copy = new CountArray(0);
+    copy.bytes = bytes == null ? null : bytes.clone();
+    copy.chars = chars == null ? null : chars.clone();
+    copy.ints = ints == null ? null : ints.clone();
+    copy.longs = longs == null ? null : longs.clone();
+    copy.width = width;
+    return copy;
+  }
+
+  /** @return the estimated size in bytes of the array */
+  public long getBytes() {
+    return bytesOf(size(), width);
+  }
+
+  /**
+   * @param size a number of counts
+   * @return the estimated size in bytes of a new array of the size
+   */
+  public static long initialBytes(int size) {
+    return bytesOf(size, 1);
+  }
+
+  private static long bytesOf(int size, int width) {
+    return 16 + 16 + (long) width * size;
+  }
+
+  private static long maxOf(int width) {
+    switch (width) {
+      case 1:
+        return 0xFF;
+      case 2:
+        return Character.MAX_VALUE;
+      case 4:
+        return Integer.MAX_VALUE;
+      default:
+        return Long.MAX_VALUE;
+    }
+  }
+
+  /** Doubles the width of the counts. */
+  private void promote() {
+    int size = size();
+    switch (width) {
+      case 1:
+        chars = new char[size];
+        for (int i = 0; i < size; i++) chars[i] = (char) (bytes[i] & 0xFF);
+        bytes = null;
+        break;
+      case 2:
+        ints = new int[size];
+        for (int i = 0; i < size; i++) ints[i] = chars[i];
+        chars = null;
+        break;
+      default:
+        longs = new long[size];
+        for (int i = 0; i < size; i++) longs[i] = ints[i];
+        ints = null;
+    }
+    width *= 2;
+  }
+}
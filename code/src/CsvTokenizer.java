@@ -0,0 +1,326 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads csv fields directly from bytes.
+ *
+ * <p>Fields are separated by a single byte and lines end with "\n", "\r" or "\r\n", like
+ * BufferedReader.readLine. Numbers are parsed in place without creating Strings. Only fields that
+ * the fast path cannot parse exactly (long doubles, exponents out of range, malformed numbers) are
+ * handed to Integer.parseInt or Double.parseDouble, so the results and the errors are the same as
+ * splitting the line and parsing the Strings.
+ */
+public class CsvTokenizer {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /* exact powers of ten, 10^22 is the largest one that a double can hold exactly */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final byte separator;
+  private final InputStream in; /* null when the whole input is in the buffer */
+  private final ByteBuffer buffer;
+
+  private char[] token = new char[32]; /* the bytes of the current field */
+  private int tokenLength;
+
+  private boolean endOfLine; /* the last field ended the line, reset by endLine */
+
+  /**
+   * Creates a tokenizer that reads the stream through an internal buffer.
+   *
+   * @param in the stream to read, closed by close()
+   * @param separator the field separator
+   */
+  public CsvTokenizer(InputStream in, byte separator) {
+    this.in = in;
+    this.separator = separator;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    this.buffer.flip(); // empty until the first read
+  }
+
+  /**
+   * Creates a tokenizer over bytes that are already in memory, e.g. a mapped file.
+   *
+   * @param buffer the bytes between position and limit are read
+   * @param separator the field separator
+   */
+  public CsvTokenizer(ByteBuffer buffer, byte separator) {
+    this.in = null;
+    this.separator = separator;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Creates a tokenizer over a memory mapped file. The bytes are read straight from the page cache,
+   * without copying them into a buffer. The file is unmapped by close().
+   *
+   * <p>A single mapping is limited to 2GB, larger files are read as a stream instead.
+   *
+   * @param file the file to map
+   * @param separator the field separator
+   * @return the tokenizer over the file
+   */
+  public static CsvTokenizer map(File file, byte separator) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        return new CsvTokenizer(new FileInputStream(file), separator);
+      }
+      // the mapping stays valid after the channel is closed
+      return new CsvTokenizer(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), separator);
+    }
+  }
+
+  /**
+   * Returns the separator as a byte if the given separator can be handled by a tokenizer: a single
+   * ASCII character without a special meaning in a regular expression.
+   *
+   * @param sep the separator as given to String.split
+   * @return the separator byte, or -1 when the separator must be handled by String.split
+   */
+  public static int separatorByte(String sep) {
+    if (sep.length() != 1) return -1;
+    char c = sep.charAt(0);
+    if (c >= 128 || ".$|()[]{}^?*+\\".indexOf(c) >= 0) return -1;
+    return c;
+  }
+
+  /** @return true if there is at least one more line */
+  public boolean hasNext() throws IOException {
+    return ensure();
+  }
+
+  /**
+   * Parses the next field as an int.
+   *
+   * @return the value of the field
+   * @throws NumberFormatException like Integer.parseInt, or if the line has no fields left
+   */
+  public int nextInt() throws IOException {
+    readField();
+    int i = 0;
+    boolean negative = false;
+    if (tokenLength > 0 && (token[0] == '-' || token[0] == '+')) {
+      negative = token[0] == '-';
+      i++;
+    }
+    // at most 9 digits can never overflow
+    if (i == tokenLength || tokenLength - i > 9) return Integer.parseInt(tokenString());
+    int value = 0;
+    for (; i < tokenLength; i++) {
+      int digit = token[i] - '0';
+      if (digit < 0 || digit > 9) return Integer.parseInt(tokenString());
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses the next field as a double.
+   *
+   * <p>The fast path handles plain decimals with at most 15 significant digits and a small
+   * exponent. Both the digits and the power of ten are then exact doubles, so one multiplication or
+   * division rounds exactly like Double.parseDouble.
+   *
+   * @return the value of the field
+   * @throws NumberFormatException like Double.parseDouble, or if the line has no fields left
+   */
+  public double nextDouble() throws IOException {
+    readField();
+    int i = 0;
+    boolean negative = false;
+    if (tokenLength > 0 && (token[0] == '-' || token[0] == '+')) {
+      negative = token[0] == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int nbDigits = 0; /* significant digits in the mantissa */
+    int exponent = 0;
+    boolean seenDigit = false;
+    boolean seenPoint = false;
+    for (; i < tokenLength; i++) {
+      char c = token[i];
+      if (c >= '0' && c <= '9') {
+        seenDigit = true;
+        if (mantissa != 0 || c != '0') {
+          if (++nbDigits > 15) return Double.parseDouble(tokenString());
+          mantissa = mantissa * 10 + (c - '0');
+        }
+        if (seenPoint) exponent--;
+      } else if (c == '.' && !seenPoint) {
+        seenPoint = true;
+      } else if ((c == 'e' || c == 'E') && seenDigit) {
+        break;
+      } else {
+        return Double.parseDouble(tokenString());
+      }
+    }
+    if (!seenDigit) return Double.parseDouble(tokenString());
+
+    if (i < tokenLength) {
+      // exponent part
+      i++;
+      boolean negativeExponent = false;
+      if (i < tokenLength && (token[i] == '-' || token[i] == '+')) {
+        negativeExponent = token[i] == '-';
+        i++;
+      }
+      if (i == tokenLength || tokenLength - i > 4) return Double.parseDouble(tokenString());
+      int explicitExponent = 0;
+      for (; i < tokenLength; i++) {
+        int digit = token[i] - '0';
+        if (digit < 0 || digit > 9) return Double.parseDouble(tokenString());
+        explicitExponent = explicitExponent * 10 + digit;
+      }
+      exponent += negativeExponent ? -explicitExponent : explicitExponent;
+    }
+
+    double value = mantissa;
+    if (mantissa == 0) {
+      // 0 with any exponent
+    } else if (exponent < 0 && exponent >= -22) {
+      value = value / POWERS_OF_TEN[-exponent];
+    } else if (exponent >= 0 && exponent <= 22) {
+      value = value * POWERS_OF_TEN[exponent];
+    } else {
+      return Double.parseDouble(tokenString());
+    }
+    return negative ? -value : value;
+  }
+
+  /** Skips the remaining fields of the current line (if any), the next field starts a new line. */
+  public void endLine() throws IOException {
+    while (!endOfLine) {
+      readToken();
+    }
+    endOfLine = false;
+  }
+
+  /**
+   * Skips bytes at the current position, e.g. to start reading at an offset from a DataIndex.
+   *
+   * @param n the number of bytes to skip
+   * @throws EOFException if the input has fewer bytes left
+   */
+  public void skip(long n) throws IOException {
+    int inBuffer = (int) Math.min(n, buffer.remaining());
+    buffer.position(buffer.position() + inBuffer);
+    n -= inBuffer;
+    if (n > 0) {
+      if (in == null) throw new EOFException("cannot skip past the end of the input");
+      in.skipNBytes(n);
+    }
+  }
+
+  /** Skips the rest of the current line without looking at its fields. */
+  public void skipLine() throws IOException {
+    endOfLine = false;
+    while (ensure()) {
+      byte b = buffer.get();
+      if (b == '\n') return;
+      if (b == '\r') {
+        if (ensure() && buffer.get(buffer.position()) == '\n') buffer.get();
+        return;
+      }
+    }
+  }
+
+  /** Closes the underlying stream or unmaps the underlying file (if any). */
+  public void close() throws IOException {
+    if (in != null) in.close();
+    if (buffer instanceof MappedByteBuffer) unmap((MappedByteBuffer) buffer);
+  }
+
+  /**
+   * Releases a mapping right away instead of waiting for the garbage collector to find the buffer.
+   * This uses sun.misc.Unsafe, when that is not available the mapping is released by the garbage
+   * collector as usual.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // leave it to the garbage collector
+    }
+  }
+
+  /**
+   * Reads the next field of the current line. A line with fewer fields than the caller reads must
+   * not run on into the next line.
+   *
+   * @throws NumberFormatException if the current line has no fields left
+   */
+  private void readField() throws IOException {
+    if (endOfLine) throw new NumberFormatException("the line has too few fields");
+    readToken();
+  }
+
+  /**
+   * Copies the bytes of the next field to token and consumes the separator or line ending after
+   * it.
+   */
+  private void readToken() throws IOException {
+    tokenLength = 0;
+    endOfLine = false;
+    while (ensure()) {
+      byte b = buffer.get();
+      if (b == separator) return;
+      if (b == '\n') {
+        endOfLine = true;
+        return;
+      }
+      if (b == '\r') {
+        endOfLine = true;
+        if (ensure() && buffer.get(buffer.position()) == '\n') buffer.get();
+        return;
+      }
+      if (tokenLength == token.length) token = Arrays.copyOf(token, 2 * tokenLength);
+      token[tokenLength++] = (char) (b & 0xff);
+    }
+    endOfLine = true; // end of input
+  }
+
+  private String tokenString() {
+    return new String(token, 0, tokenLength);
+  }
+
+  /**
+   * Makes sure that there is at least one byte left in the buffer.
+   *
+   * @return false if the input is exhausted
+   */
+  private boolean ensure() throws IOException {
+    if (buffer.hasRemaining()) return true;
+    if (in == null) return false;
+    buffer.clear();
+    int n;
+    do {
+      n = in.read(buffer.array(), 0, buffer.capacity());
+    } while (n == 0);
+    buffer.limit(Math.max(n, 0));
+    return n > 0;
+  }
+}
@@ -3,50 +3,371 @@
  * without permission. Written by Pieter Robberechts, 2021
  */
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * This class read data from disk.
  *
  * <p>The data can be stored on several csv files. This class reads all the csv files in a given
- * directory in alphabetical order.
+ * directory in alphabetical order. Files ending in ".csv.gz" are gzipped csv files, they are
+ * decompressed while reading.
  *
  * <p>The data files are of csv format with "," as delimiter. The last value is the class value. The
  * features will be parsed to type T, the class to an integer.
+ *
+ * <p>The data can also be read from a stream in the same csv format, e.g. the standard input or a
+ * named pipe. A stream can only be read once: the examples are gone once they have been read.
  */
 public abstract class Data<T> implements Iterable<Example<T>> {
 
   public Data(String dataDir, String sep) throws FileNotFoundException {
+    this(dataDir, sep, ".csv", ".csv.gz");
+  }
+
+  /**
+   * Creates data over a stream of csv lines instead of a directory. Only the first line is read
+   * ahead, to know the number of features.
+   *
+   * @param in the stream with the data, closed when it has been read
+   * @param sep the separator of the fields
+   */
+  public Data(InputStream in, String sep) {
+    this.sep = sep;
+    this.separatorByte = CsvTokenizer.separatorByte(sep);
+    this.stream = new BufferedInputStream(in, 1 << 16);
+    this.dataFiles = new File[0];
+  }
+
+  /**
+   * Checks whether a data set given on the command line is a stream instead of a directory: "-"
+   * for the standard input, or a single file such as a named pipe.
+   *
+   * @param dataSet the data set argument
+   * @return true if the data set should be opened with openStream
+   */
+  public static boolean isStream(String dataSet) {
+    File file = new File(dataSet);
+    return dataSet.equals("-") || (file.exists() && !file.isDirectory());
+  }
+
+  /**
+   * Opens a data set for which isStream holds. A file ending in ".gz" is decompressed.
+   *
+   * @param dataSet the data set argument
+   * @return the stream with the data
+   */
+  public static InputStream openStream(String dataSet) throws IOException {
+    if (dataSet.equals("-")) return System.in;
+    return ShardDecompressor.open(new File(dataSet));
+  }
+
+  /**
+   * Creates data over the files of a directory with another extension than ".csv", for subclasses
+   * that read another file format.
+   *
+   * @param dataDir the directory with the data files
+   * @param sep the separator of the fields
+   * @param extensions the extensions of the data files
+   */
+  protected Data(String dataDir, String sep, final String... extensions)
+      throws FileNotFoundException {
     this.sep = sep;
+    this.separatorByte = CsvTokenizer.separatorByte(sep);
+    this.dataDir = new File(dataDir);
+    this.dataFilter =
+        new FilenameFilter() {
+          @Override
+          public boolean accept(File file, String s) {
+            for (String extension : extensions) {
+              if (s.endsWith(extension)) return true;
+            }
+            return false;
+          }
+        };
 
-    dataFiles =
-        new File(dataDir)
-            .listFiles(
-                new FilenameFilter() {
-                  @Override
-                  public boolean accept(File file, String s) {
-                    return s.endsWith(".csv");
-                  }
-                });
+    dataFiles = this.dataDir.listFiles(dataFilter);
 
     Arrays.sort(dataFiles);
   }
 
   /**
-   * Get the number of features, based on the first line of data
+   * Get the number of features, from the index if there is one, else based on the first line of
+   * data
    *
    * @return number of features
    */
   public int getNbFeatures() {
+    if (stream != null) return getStreamNbFeatures();
+    if (tailing) return getTailingNbFeatures();
+
+    DataIndex index = getIndex();
+    if (index != null) return index.getNbFeatures();
+
     Iterator<Example<T>> it = this.iterator();
     if (it.hasNext()) {
       return it.next().attributeValues.length;
     } else return 0;
   }
 
+  /**
+   * Get the number of features of a stream from its first line, without consuming it
+   *
+   * @return number of features
+   * @throws IllegalStateException if the first line is longer than MAX_LINE_LENGTH, as it could
+   *     not be read again
+   */
+  private int getStreamNbFeatures() {
+    if (streamNbFeatures < 0) {
+      ByteArrayOutputStream firstLine = new ByteArrayOutputStream();
+      int b = -1;
+      try {
+        stream.mark(MAX_LINE_LENGTH);
+        b = stream.read();
+        while (b >= 0 && b != '\n' && b != '\r') {
+          if (firstLine.size() == MAX_LINE_LENGTH - 1) {
+            throw new IllegalStateException(
+                "the first line of the stream is longer than " + MAX_LINE_LENGTH + " bytes");
+          }
+          firstLine.write(b);
+          b = stream.read();
+        }
+        stream.reset();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (b < 0 && firstLine.size() == 0) {
+        streamNbFeatures = 0;
+      } else {
+        streamNbFeatures = firstLine.toString().split(sep).length - 1;
+      }
+    }
+    return streamNbFeatures;
+  }
+
+  /**
+   * Get the number of features in tailing mode from the first line of the first data file. The
+   * directory is often still empty when reading starts, so this waits until a data file with a line
+   * appears.
+   *
+   * @return number of features
+   * @throws IllegalStateException if the stream ends without any example
+   */
+  private int getTailingNbFeatures() {
+    while (tailingNbFeatures < 0) {
+      boolean endSeen = new File(dataDir, TailingBatchReader.END_MARKER).exists();
+      File[] files = dataDir.listFiles(dataFilter);
+      if (files != null) {
+        Arrays.sort(files);
+        for (File file : files) {
+          String firstLine;
+          try (BufferedReader reader =
+              new BufferedReader(new InputStreamReader(ShardDecompressor.open(file)))) {
+            firstLine = reader.readLine();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          if (firstLine != null) {
+            tailingNbFeatures = firstLine.split(sep).length - 1;
+            break;
+          }
+        }
+      }
+      if (tailingNbFeatures < 0) {
+        if (endSeen) throw new IllegalStateException("no examples in " + dataDir);
+        try {
+          Thread.sleep(TailingBatchReader.RESCAN_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("interrupted while waiting for data in " + dataDir);
+        }
+      }
+    }
+    return tailingNbFeatures;
+  }
+
+  /**
+   * Get the number of examples, from the index if there is one, else by reading all data. This
+   * consumes a stream.
+   *
+   * @return number of examples
+   */
+  public long getNbExamples() {
+    DataIndex index = getIndex();
+    if (index != null) return index.getNbExamples();
+
+    BatchReader<T> reader = batchReader();
+    ExampleBatch<T> batch = newBatch(PIPELINE_BATCH_SIZE);
+    long nbExamples = 0;
+    int n;
+    while ((n = reader.read(batch, batch.capacity())) > 0) nbExamples += n;
+    reader.close();
+    return nbExamples;
+  }
+
+  /**
+   * Returns the index of the data directory, see DataIndex. The index is ignored when it is
+   * missing, when it no longer matches the data files or when the separator is not a single plain
+   * character.
+   *
+   * @return the index, or null if there is no valid index
+   */
+  protected DataIndex getIndex() {
+    if (!indexLoaded && stream == null) {
+      indexLoaded = true;
+      File path = new File(dataDir, DataIndex.FILE_NAME);
+      if (separatorByte >= 0 && path.isFile()) {
+        try {
+          DataIndex candidate = DataIndex.read(path);
+          if (candidate.matches(dataFiles)) index = candidate;
+        } catch (IOException e) {
+          System.err.println(e.toString());
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Checks whether writeIndex can index this data: a stream and data whose separator is not a
+   * single plain character are not indexed, nor are formats whose files already hold their counts.
+   *
+   * @return true if writeIndex can be called
+   */
+  public boolean canIndex() {
+    return stream == null && separatorByte >= 0;
+  }
+
+  /**
+   * Builds the index of the data files and writes it into the data directory, where it is picked
+   * up by every Data over the same directory. The index must be rebuilt when the data changes.
+   *
+   * @param period the number of examples between two offsets in the index
+   * @return the index file
+   * @throws UnsupportedOperationException if the data cannot be indexed, see canIndex
+   * @throws IllegalArgumentException if the period is not positive
+   */
+  public File writeIndex(int period) throws IOException {
+    if (period <= 0) {
+      throw new IllegalArgumentException("the period must be positive, got " + period);
+    }
+    if (!canIndex()) {
+      throw new UnsupportedOperationException(
+          "cannot index " + (stream != null ? "a stream" : dataDir.toString()));
+    }
+    DataIndex built = DataIndex.build(dataFiles, (byte) separatorByte, period);
+    File path = new File(dataDir, DataIndex.FILE_NAME);
+    built.write(path);
+    index = built;
+    indexLoaded = true;
+    return path;
+  }
+
+  /**
+   * Reads the files by mapping them in memory instead of reading them through a stream. This
+   * avoids copying every byte into a buffer, which pays off for large files. Only applies to the
+   * batch reader with a single character separator, gzipped files are never mapped.
+   *
+   * @param memoryMapped whether the files should be memory mapped
+   */
+  public void setMemoryMapped(boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+  }
+
+  /**
+   * Applies the read options that were given on the command line after the required arguments.
+   * Options that do not concern the data (e.g. -writeOutAllPredictions) are ignored.
+   *
+   * <p>-memoryMapped: see setMemoryMapped
+   *
+   * <p>-pipelined: see setPipelined
+   *
+   * <p>-parallel: parses as many files at the same time as there are cores, see setParsingThreads
+   *
+   * <p>-tail: see setTailing
+   *
+   * @param args the command line arguments
+   * @param from the index of the first optional argument
+   */
+  public void setOptions(String[] args, int from) {
+    for (int i = from; i < args.length; i++) {
+      if (args[i].equals("-memoryMapped")) setMemoryMapped(true);
+      if (args[i].equals("-pipelined")) setPipelined(true);
+      if (args[i].equals("-parallel")) {
+        setParsingThreads(Runtime.getRuntime().availableProcessors());
+      }
+      if (args[i].equals("-tail")) setTailing(true);
+    }
+  }
+
+  /**
+   * Reads and parses the data on a background thread, ahead of the learner. The examples are
+   * returned in the same order, so the learning curve does not change. Only applies to the batch
+   * reader.
+   *
+   * @param pipelined whether the data should be read ahead
+   */
+  public void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+  /**
+   * Parses several files at the same time, each on its own thread. The examples are merged back in
+   * the original order, so the learning curve does not change. Only applies to the batch reader.
+   *
+   * @param parsingThreads the number of files that are parsed at once, 1 to parse sequentially
+   */
+  public void setParsingThreads(int parsingThreads) {
+    this.parsingThreads = parsingThreads;
+  }
+
+  /**
+   * Sets the number of worker threads that decompress gzipped files ahead of the batch reader.
+   *
+   * @param decompressionThreads the number of gzipped files that are decompressed at once
+   */
+  public void setDecompressionThreads(int decompressionThreads) {
+    this.decompressionThreads = decompressionThreads;
+  }
+
+  /**
+   * Keeps reading the files that are added to the data directory after the existing files, until
+   * the file TailingBatchReader.END_MARKER appears. See TailingBatchReader for when a new file is
+   * picked up. Only applies to the batch reader, and not together with parsing threads.
+   *
+   * @param tailing whether new files should be read as they come in
+   */
+  public void setTailing(boolean tailing) {
+    this.tailing = tailing;
+  }
+
+  /** @return the data files, in the order they are read */
+  protected File[] getDataFiles() {
+    return dataFiles;
+  }
+
   private String sep;
+  private int separatorByte; /* -1 if sep is not a single plain character */
+  private File dataDir;
+  private FilenameFilter dataFilter;
   private File[] dataFiles;
+  private DataIndex index = null;
+  private boolean indexLoaded = false;
+  private boolean memoryMapped = false;
+  private boolean pipelined = false;
+  private boolean tailing = false;
+  private BufferedInputStream stream = null; /* the data, if it is read from a stream */
+  private int streamNbFeatures = -1;
+  private int tailingNbFeatures = -1;
+  private int parsingThreads = 1;
+  private int decompressionThreads =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+  private static final int PIPELINE_BATCHES = 4; /* number of batches read ahead */
+  private static final int PIPELINE_BATCH_SIZE = 4096; /* examples per read ahead batch */
+  private static final int MAX_LINE_LENGTH = 1 << 20; /* longest first line of a stream */
 
   /**
    * Returns an iterator over all examples
@@ -68,11 +389,19 @@ public abstract class Data<T> implements Iterable<Example<T>> {
         boolean hasNext = false;
 
         while (!hasNext) {
+          // a stream is read as a single file
+          if (stream != null && currentFileIndex < 0) {
+            currentFileIndex = 0;
+            currentFile = new BufferedReader(new InputStreamReader(stream));
+          }
+
           // open new file if needed
           while (currentFile == null && currentFileIndex + 1 < dataFiles.length) {
             currentFileIndex++;
             try {
-              currentFile = new BufferedReader(new FileReader(dataFiles[currentFileIndex]));
+              currentFile =
+                  new BufferedReader(
+                      new InputStreamReader(ShardDecompressor.open(dataFiles[currentFileIndex])));
             } catch (IOException e) {
               System.err.println(e.toString());
             }
@@ -118,7 +447,7 @@ public abstract class Data<T> implements Iterable<Example<T>> {
             currentFile.close();
             currentFile = null;
           } catch (IOException e) {
-
+            System.err.println(e.toString());
           }
         }
       }
@@ -140,6 +469,330 @@ public abstract class Data<T> implements Iterable<Example<T>> {
     return new Example<T>(attributes, Integer.parseInt(splitLine[splitLine.length - 1]));
   }
 
+  /**
+   * Returns a reader that fills batches with the examples of all files, in the same order as the
+   * example iterator.
+   *
+   * <p>For a single character separator the files are parsed by a CsvTokenizer, which does not
+   * create any Strings. Other separators are handled as regular expressions, like the iterator.
+   * In pipelined mode the files are parsed on a background thread, with parsing threads several
+   * files are parsed at the same time. In tailing mode the reader also returns the examples of
+   * files that are added later. A stream is read like a single file, parsing threads and tailing do
+   * not apply.
+   *
+   * @return reader over all examples
+   */
+  public BatchReader<T> batchReader() {
+    if (stream != null || tailing) {
+      BatchReader<T> reader;
+      try {
+        reader =
+            stream != null
+                ? streamBatchReader()
+                : new TailingBatchReader<T>(
+                    dataDir,
+                    dataFilter,
+                    file -> fileBatchReader(new File[] {file}, 0),
+                    newBatch(PIPELINE_BATCH_SIZE));
+      } catch (IOException e) {
+        System.err.println(e.toString());
+        return fileBatchReader(new File[0], 0);
+      }
+      if (!pipelined) return reader;
+
+      ArrayList<ExampleBatch<T>> ring = new ArrayList<ExampleBatch<T>>(PIPELINE_BATCHES);
+      for (int i = 0; i < PIPELINE_BATCHES; i++) ring.add(newBatch(PIPELINE_BATCH_SIZE));
+      return new PipelinedBatchReader<T>(reader, ring);
+    }
+
+    if (parsingThreads > 1) {
+      ArrayList<List<ExampleBatch<T>>> slots = new ArrayList<List<ExampleBatch<T>>>();
+      for (int i = 0; i < parsingThreads; i++) {
+        ArrayList<ExampleBatch<T>> slot = new ArrayList<ExampleBatch<T>>(PIPELINE_BATCHES);
+        for (int j = 0; j < PIPELINE_BATCHES; j++) slot.add(newBatch(PIPELINE_BATCH_SIZE));
+        slots.add(slot);
+      }
+      // every file is decompressed by the thread that parses it
+      return new ParallelBatchReader<T>(
+          index -> fileBatchReader(new File[] {dataFiles[index]}, 0), dataFiles.length, slots);
+    }
+
+    if (!pipelined) return fileBatchReader(dataFiles, decompressionThreads);
+
+    ArrayList<ExampleBatch<T>> ring = new ArrayList<ExampleBatch<T>>(PIPELINE_BATCHES);
+    for (int i = 0; i < PIPELINE_BATCHES; i++) ring.add(newBatch(PIPELINE_BATCH_SIZE));
+    return new PipelinedBatchReader<T>(fileBatchReader(dataFiles, decompressionThreads), ring);
+  }
+
+  /**
+   * Returns a reader that starts at the given example, in the same order as the example iterator.
+   *
+   * <p>With an index, the reader jumps to the closest indexed offset before the example and skips
+   * at most period lines, in pipelined mode these are then read ahead. Without an index, all
+   * examples before the given one are read and dropped.
+   *
+   * @param firstExample the number of examples to skip
+   * @return reader over the examples from firstExample on
+   */
+  public BatchReader<T> batchReader(long firstExample) {
+    DataIndex index = getIndex();
+    if (index == null) {
+      BatchReader<T> reader = batchReader();
+      ExampleBatch<T> batch = newBatch(PIPELINE_BATCH_SIZE);
+      long left = firstExample;
+      while (left > 0 && reader.read(batch, (int) Math.min(left, batch.capacity())) > 0) {
+        left -= batch.size();
+      }
+      return reader;
+    }
+
+    BatchReader<T> reader;
+    if (firstExample >= index.getNbExamples()) {
+      reader = fileBatchReader(new File[0], 0);
+    } else {
+      int file = index.fileOf(firstExample);
+      long row = firstExample - index.firstExampleOf(file);
+      File[] files = Arrays.copyOfRange(dataFiles, file, dataFiles.length);
+      reader =
+          tokenizerBatchReader(
+              files,
+              decompressionThreads,
+              index.offsetOf(file, row),
+              (int) (row % index.getPeriod()));
+    }
+    if (!pipelined) return reader;
+
+    ArrayList<ExampleBatch<T>> ring = new ArrayList<ExampleBatch<T>>(PIPELINE_BATCHES);
+    for (int i = 0; i < PIPELINE_BATCHES; i++) ring.add(newBatch(PIPELINE_BATCH_SIZE));
+    return new PipelinedBatchReader<T>(reader, ring);
+  }
+
+  /**
+   * Returns a batch reader that parses the given files on the calling thread.
+   *
+   * @param files the files to read, in order
+   * @param decompressionThreads the number of threads that decompress gzipped files ahead, 0 to
+   *     decompress them on the calling thread
+   * @return reader over all examples of the files
+   */
+  protected BatchReader<T> fileBatchReader(final File[] files, int decompressionThreads) {
+    if (separatorByte < 0) return lineBatchReader(files);
+    return tokenizerBatchReader(files, decompressionThreads, 0, 0);
+  }
+
+  /**
+   * Returns a batch reader that parses the given files with a CsvTokenizer on the calling thread.
+   *
+   * @param files the files to read, in order
+   * @param decompressionThreads the number of threads that decompress gzipped files ahead
+   * @param firstOffset the byte offset in the first file where reading starts
+   * @param firstSkipLines the number of lines to skip after firstOffset
+   * @return reader over the examples of the files
+   */
+  private BatchReader<T> tokenizerBatchReader(
+      final File[] files,
+      int decompressionThreads,
+      final long firstOffset,
+      final int firstSkipLines) {
+    return new BatchReader<T>() {
+
+      private int currentFileIndex = -1;
+      private CsvTokenizer currentFile = null;
+      private final ShardDecompressor decompressor =
+          new ShardDecompressor(files, decompressionThreads);
+
+      @Override
+      public int read(ExampleBatch<T> batch, int max) {
+        int row = 0;
+        while (row < max) {
+          // open new file if needed
+          while (currentFile == null && currentFileIndex + 1 < files.length) {
+            currentFileIndex++;
+            try {
+              currentFile = openTokenizer(currentFileIndex);
+            } catch (IOException e) {
+              System.err.println(e.toString());
+            }
+          }
+          if (currentFile == null) break; // there are no datafiles left
+
+          // read next line of current file
+          try {
+            if (currentFile.hasNext()) {
+              batch.readRow(row++, currentFile);
+            } else {
+              closeFile();
+            }
+          } catch (IOException e) {
+            System.err.println(e.toString());
+            closeFile();
+          }
+        }
+        batch.setSize(row);
+        return row;
+      }
+
+      /**
+       * Opens a tokenizer over a data file: memory mapped if requested, or decompressed ahead if
+       * it is gzipped.
+       */
+      private CsvTokenizer openTokenizer(int index) throws IOException {
+        CsvTokenizer tokenizer;
+        File file = files[index];
+        if (ShardDecompressor.isCompressed(file)) {
+          tokenizer = new CsvTokenizer(decompressor.open(index), (byte) separatorByte);
+        } else if (memoryMapped) {
+          tokenizer = CsvTokenizer.map(file, (byte) separatorByte);
+        } else {
+          tokenizer = new CsvTokenizer(new FileInputStream(file), (byte) separatorByte);
+        }
+        if (index == 0) {
+          tokenizer.skip(firstOffset);
+          for (int i = 0; i < firstSkipLines; i++) tokenizer.skipLine();
+        }
+        return tokenizer;
+      }
+
+      @Override
+      public void close() {
+        closeFile();
+        decompressor.close();
+      }
+
+      private void closeFile() {
+        if (currentFile != null) {
+          try {
+            currentFile.close();
+          } catch (IOException e) {
+            System.err.println(e.toString());
+          }
+          currentFile = null;
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a batch reader over the stream, with a CsvTokenizer for a single character separator.
+   *
+   * @return reader over all examples of the stream
+   */
+  private BatchReader<T> streamBatchReader() {
+    return new BatchReader<T>() {
+
+      private final CsvTokenizer tokenizer =
+          separatorByte < 0 ? null : new CsvTokenizer(stream, (byte) separatorByte);
+      private final BufferedReader lines =
+          separatorByte < 0 ? new BufferedReader(new InputStreamReader(stream)) : null;
+      private boolean exhausted = false;
+
+      @Override
+      public int read(ExampleBatch<T> batch, int max) {
+        int row = 0;
+        while (row < max && !exhausted) {
+          try {
+            if (tokenizer != null) {
+              if (tokenizer.hasNext()) {
+                batch.readRow(row++, tokenizer);
+              } else {
+                close();
+              }
+            } else {
+              String line = lines.readLine();
+              if (line == null) {
+                close();
+              } else {
+                batch.parseRow(row++, line.split(sep));
+              }
+            }
+          } catch (IOException e) {
+            System.err.println(e.toString());
+            exhausted = true;
+          }
+        }
+        batch.setSize(row);
+        return row;
+      }
+
+      @Override
+      public void close() {
+        exhausted = true;
+        try {
+          stream.close();
+        } catch (IOException e) {
+          System.err.println(e.toString());
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a batch reader that splits every line with the separator as regular expression.
+   *
+   * @param files the files to read, in order
+   * @return reader over all examples of the files
+   */
+  private BatchReader<T> lineBatchReader(final File[] files) {
+    return new BatchReader<T>() {
+
+      private int currentFileIndex = -1;
+      private BufferedReader currentFile = null;
+
+      @Override
+      public int read(ExampleBatch<T> batch, int max) {
+        int row = 0;
+        while (row < max) {
+          // open new file if needed
+          while (currentFile == null && currentFileIndex + 1 < files.length) {
+            currentFileIndex++;
+            try {
+              currentFile =
+                  new BufferedReader(
+                      new InputStreamReader(ShardDecompressor.open(files[currentFileIndex])));
+            } catch (IOException e) {
+              System.err.println(e.toString());
+            }
+          }
+          if (currentFile == null) break; // there are no datafiles left
+
+          // read next line of current file
+          try {
+            String line = currentFile.readLine();
+            if (line == null) {
+              close();
+            } else {
+              batch.parseRow(row++, line.split(sep));
+            }
+          } catch (IOException e) {
+            close();
+          }
+        }
+        batch.setSize(row);
+        return row;
+      }
+
+      @Override
+      public void close() {
+        if (currentFile != null) {
+          try {
+            currentFile.close();
+          } catch (IOException e) {
+            System.err.println(e.toString());
+          }
+          currentFile = null;
+        }
+      }
+    };
+  }
+
+  /**
+   * Creates an empty batch that can hold the examples of this data.
+   *
+   * @param capacity the maximal number of examples in the batch
+   * @return the empty batch
+   */
+  public abstract ExampleBatch<T> newBatch(int capacity);
+
   protected abstract T parseAttribute(String attrString);
 
   protected abstract T[] emptyAttributes(int i);
@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An index over the csv files of a data directory.
+ *
+ * <p>The index is stored next to the data as "data.index". It holds the number of features and,
+ * for every file, the number of examples and the byte offset of every period-th example (in the
+ * decompressed contents for gzipped files). With the index, the number of features and the number
+ * of examples are known without reading the data, and a reader can start at any example by
+ * jumping to the closest offset before it.
+ *
+ * <p>The index also records the length and modification time of every file. It is ignored as soon
+ * as the files in the directory no longer match.
+ *
+ * <p>The file format is:
+ *
+ * <pre>
+ * nbFeatures &lt;nbFeatures&gt;
+ * period &lt;period&gt;
+ * &lt;file name&gt; TAB &lt;nbExamples&gt; &lt;length&gt; &lt;lastModified&gt; &lt;offset 0&gt; &lt;offset period&gt; ...
+ * </pre>
+ */
+public class DataIndex {
+
+  public static final String FILE_NAME = "data.index";
+  public static final int DEFAULT_PERIOD = 1024;
+
+  private final int nbFeatures;
+  private final int period;
+  private final String[] names;
+  private final long[] nbExamples;
+  private final long[] lengths;
+  private final long[] lastModified;
+  private final long[][] offsets; /* offsets[file][i] is the offset of example i * period */
+  private final long[] firstExamples; /* global index of the first example of every file */
+
+  private DataIndex(
+      int nbFeatures,
+      int period,
+      String[] names,
+      long[] nbExamples,
+      long[] lengths,
+      long[] lastModified,
+      long[][] offsets) {
+    this.nbFeatures = nbFeatures;
+    this.period = period;
+    this.names = names;
+    this.nbExamples = nbExamples;
+    this.lengths = lengths;
+    this.lastModified = lastModified;
+    this.offsets = offsets;
+    this.firstExamples = new long[names.length + 1];
+    for (int i = 0; i < names.length; i++) {
+      firstExamples[i + 1] = firstExamples[i] + nbExamples[i];
+    }
+  }
+
+  public int getNbFeatures() {
+    return nbFeatures;
+  }
+
+  public int getPeriod() {
+    return period;
+  }
+
+  /** @return the total number of examples in all files */
+  public long getNbExamples() {
+    return firstExamples[names.length];
+  }
+
+  /**
+   * @param example the global index of an example, smaller than getNbExamples()
+   * @return the file that holds the example
+   */
+  public int fileOf(long example) {
+    int file = Arrays.binarySearch(firstExamples, example);
+    if (file < 0) return -file - 2; // in the middle of a file
+    // the example starts a file, skip empty files
+    while (nbExamples[file] == 0) file++;
+    return file;
+  }
+
+  /**
+   * @param file a file of the index
+   * @return the global index of the first example of the file
+   */
+  public long firstExampleOf(int file) {
+    return firstExamples[file];
+  }
+
+  /**
+   * Returns the offset of the closest indexed example at or before the given example. The example
+   * is example % period lines after that offset.
+   *
+   * @param file a file of the index
+   * @param example the index of an example within the file
+   * @return the byte offset
+   */
+  public long offsetOf(int file, long example) {
+    return offsets[file][(int) (example / period)];
+  }
+
+  /**
+   * Checks whether the index still describes the given files.
+   *
+   * @param files the data files, in the order they are read
+   * @return true if the names, lengths and modification times all match
+   */
+  public boolean matches(File[] files) {
+    if (files.length != names.length) return false;
+    for (int i = 0; i < files.length; i++) {
+      if (!files[i].getName().equals(names[i])
+          || files[i].length() != lengths[i]
+          || files[i].lastModified() != lastModified[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Builds the index by scanning all files once. Lines end with "\n", "\r" or "\r\n", every line is
+   * an example.
+   *
+   * @param files the data files, in the order they are read
+   * @param separator the field separator
+   * @param period the number of examples between two recorded offsets
+   * @return the index
+   * @throws IllegalArgumentException if the period is not positive
+   */
+  public static DataIndex build(File[] files, byte separator, int period) throws IOException {
+    if (period <= 0) {
+      throw new IllegalArgumentException("the period must be positive, got " + period);
+    }
+    int nbFeatures = -1;
+    long[] nbExamples = new long[files.length];
+    long[][] offsets = new long[files.length][];
+    byte[] buffer = new byte[1 << 16];
+
+    for (int f = 0; f < files.length; f++) {
+      long[] fileOffsets = new long[16];
+      int nbOffsets = 0;
+      long nbLines = 0;
+      long offset = 0;
+      boolean lineStart = true;
+      boolean afterCarriageReturn = false;
+      int nbSeparators = 0; /* in the first line of the data */
+
+      try (InputStream in = ShardDecompressor.open(files[f])) {
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+          for (int i = 0; i < n; i++, offset++) {
+            byte b = buffer[i];
+            if (afterCarriageReturn) {
+              afterCarriageReturn = false;
+              if (b == '\n') continue; // the end of "\r\n"
+            }
+            if (lineStart) {
+              if (nbLines % period == 0) {
+                if (nbOffsets == fileOffsets.length) {
+                  fileOffsets = Arrays.copyOf(fileOffsets, 2 * nbOffsets);
+                }
+                fileOffsets[nbOffsets++] = offset;
+              }
+              nbLines++;
+              lineStart = false;
+            }
+            if (b == '\n' || b == '\r') {
+              lineStart = true;
+              afterCarriageReturn = b == '\r';
+              if (nbFeatures < 0) nbFeatures = nbSeparators; // the last field is the class
+            } else if (b == separator && nbFeatures < 0) {
+              nbSeparators++;
+            }
+          }
+        }
+      }
+      if (nbFeatures < 0 && nbLines > 0) nbFeatures = nbSeparators; // one line without newline
+      nbExamples[f] = nbLines;
+      offsets[f] = Arrays.copyOf(fileOffsets, nbOffsets);
+    }
+
+    String[] names = new String[files.length];
+    long[] lengths = new long[files.length];
+    long[] lastModified = new long[files.length];
+    for (int f = 0; f < files.length; f++) {
+      names[f] = files[f].getName();
+      lengths[f] = files[f].length();
+      lastModified[f] = files[f].lastModified();
+    }
+    return new DataIndex(
+        Math.max(nbFeatures, 0), period, names, nbExamples, lengths, lastModified, offsets);
+  }
+
+  /**
+   * Writes the index to a file. The index is written next to it first and then moved into place,
+   * so a Data over the same directory never reads a partly written index.
+   *
+   * @param path the index file
+   */
+  public void write(File path) throws IOException {
+    File partial = new File(path + ".part");
+    boolean complete = false;
+    try {
+      try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(partial)))) {
+        writer.println("nbFeatures " + nbFeatures);
+        writer.println("period " + period);
+        for (int f = 0; f < names.length; f++) {
+          StringBuilder line = new StringBuilder();
+          line.append(names[f]).append('\t').append(nbExamples[f]);
+          line.append(' ').append(lengths[f]).append(' ').append(lastModified[f]);
+          for (long offset : offsets[f]) line.append(' ').append(offset);
+          writer.println(line);
+        }
+        // a PrintWriter does not throw, it only remembers that writing failed
+        if (writer.checkError()) throw new IOException("could not write " + partial);
+      }
+      Files.move(partial.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      complete = true;
+    } finally {
+      if (!complete) partial.delete();
+    }
+  }
+
+  /**
+   * Reads an index file.
+   *
+   * @param path the index file
+   * @return the index
+   */
+  public static DataIndex read(File path) throws IOException {
+    BufferedReader reader = new BufferedReader(new FileReader(path));
+    try {
+      int nbFeatures = Integer.parseInt(reader.readLine().split(" ")[1]);
+      int period = Integer.parseInt(reader.readLine().split(" ")[1]);
+      if (period <= 0) throw new IOException(path + " is not a valid index: period " + period);
+      ArrayList<String[]> lines = new ArrayList<String[]>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) lines.add(line.split("\t"));
+      }
+
+      int nbFiles = lines.size();
+      String[] names = new String[nbFiles];
+      long[] nbExamples = new long[nbFiles];
+      long[] lengths = new long[nbFiles];
+      long[] lastModified = new long[nbFiles];
+      long[][] offsets = new long[nbFiles][];
+      for (int f = 0; f < nbFiles; f++) {
+        names[f] = lines.get(f)[0];
+        String[] values = lines.get(f)[1].split(" ");
+        nbExamples[f] = Long.parseLong(values[0]);
+        lengths[f] = Long.parseLong(values[1]);
+        lastModified[f] = Long.parseLong(values[2]);
+        offsets[f] = new long[values.length - 3];
+        for (int i = 0; i < offsets[f].length; i++) offsets[f][i] = Long.parseLong(values[i + 3]);
+      }
+      return new DataIndex(nbFeatures, period, names, nbExamples, lengths, lastModified, offsets);
+    } catch (RuntimeException e) {
+      throw new IOException(path + " is not a valid index: " + e);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** Builds the index of a data directory. */
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.err.println("Usage: java DataIndex <data set> [<period>]");
+      throw new Error("Expected 1 or 2 arguments, got " + args.length + ".");
+    }
+    try {
+      int period = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PERIOD;
+      IntData data = new IntData(args[0], ",");
+      if (!data.canIndex()) {
+        System.err.println(args[0] + " cannot be indexed");
+        return;
+      }
+      File path = data.writeIndex(period);
+      System.out.println(
+          "indexed " + data.getNbExamples() + " examples with " + data.getNbFeatures()
+              + " features into " + path);
+    } catch (IOException e) {
+      System.err.println(e.toString());
+    }
+  }
+}
@@ -0,0 +1,559 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class DataSanityChecks {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void tokenizerParsesIntsAsParseInt() throws Exception {
+    String[] fields = {
+      "0", "7", "-7", "+7", "-0", "000123", "999999999", "-999999999", "2147483647", "-2147483648",
+      "+2147483647", "1234567890"
+    };
+    CsvTokenizer tokenizer = tokenizer(String.join(",", fields) + "\n");
+    for (String field : fields) {
+      assertEquals("Field " + field, Integer.parseInt(field), tokenizer.nextInt());
+    }
+    assertFalse(tokenizer.hasNext());
+  }
+
+  @Test
+  public void tokenizerRejectsIntsAsParseInt() throws Exception {
+    for (String field : new String[] {"", "-", "+", "1.5", "12a", " 1", "2147483648", "1e3"}) {
+      CsvTokenizer tokenizer = tokenizer(field + ",1\n");
+      try {
+        tokenizer.nextInt();
+        fail("Field '" + field + "' should not parse as an int");
+      } catch (NumberFormatException e) {
+        // as Integer.parseInt
+      }
+    }
+  }
+
+  @Test
+  public void tokenizerParsesDoublesAsParseDouble() throws Exception {
+    String[] fields = {
+      // signs and exponents
+      "0", "-0", "+0", "-0.0", "1.5", "-1.5", "+1.5", ".5", "5.", "-.5", "1e3", "1E3", "1e+3",
+      "1e-3", "-1.5e-3", "+2.5E+10", "0e500", "0.000123", "1.e2", "1e0004", "1e00005",
+      // 15 and 16 significant digits
+      "123456789012345", "123456789012346", "1234567890123456", "9007199254740993",
+      "0.123456789012345", "0.1234567890123456", "12345.6789012345", "12345.67890123456",
+      "1.000000000000000", "100000000000000000000", "9999999999999999",
+      // the exponent edges of the exact powers of ten
+      "1e22", "1e23", "1e-22", "1e-23", "123456789012345e22", "123456789012345e-22",
+      "1.5e22", "1.5e-21", "4.9e-324", "1.7976931348623157e308", "1e309", "1e-400",
+      // not plain decimals
+      "NaN", "-Infinity", "0x1p3", "1d", " 1.5"
+    };
+    CsvTokenizer tokenizer = tokenizer(String.join(",", fields));
+    for (String field : fields) {
+      assertEquals(
+          "Field " + field,
+          Double.doubleToRawLongBits(Double.parseDouble(field)),
+          Double.doubleToRawLongBits(tokenizer.nextDouble()));
+    }
+    assertFalse(tokenizer.hasNext());
+  }
+
+  @Test
+  public void tokenizerParsesRandomDoublesAsParseDouble() throws Exception {
+    Random random = new Random(13);
+    StringBuilder line = new StringBuilder();
+    String[] fields = new String[10000];
+    for (int i = 0; i < fields.length; i++) {
+      StringBuilder field = new StringBuilder();
+      if (random.nextBoolean()) field.append('-');
+      int nbDigits = 1 + random.nextInt(18);
+      int point = random.nextInt(nbDigits + 1);
+      for (int d = 0; d < nbDigits; d++) {
+        if (d == point) field.append('.');
+        field.append((char) ('0' + random.nextInt(10)));
+      }
+      if (random.nextBoolean()) field.append('e').append(random.nextInt(51) - 25);
+      fields[i] = field.toString();
+      line.append(fields[i]).append(i + 1 < fields.length ? "," : "\n");
+    }
+    CsvTokenizer tokenizer = tokenizer(line.toString());
+    for (String field : fields) {
+      assertEquals(
+          "Field " + field,
+          Double.doubleToRawLongBits(Double.parseDouble(field)),
+          Double.doubleToRawLongBits(tokenizer.nextDouble()));
+    }
+  }
+
+  @Test
+  public void tokenizerRejectsDoublesAsParseDouble() throws Exception {
+    for (String field : new String[] {"", "-", ".", "e5", "1e", "1e+", "1.2.3", "1e5.5", "abc"}) {
+      CsvTokenizer tokenizer = tokenizer(field + ",1\n");
+      try {
+        tokenizer.nextDouble();
+        fail("Field '" + field + "' should not parse as a double");
+      } catch (NumberFormatException e) {
+        // as Double.parseDouble
+      }
+    }
+  }
+
+  @Test
+  public void tokenizerSplitsLinesAsReadLine() throws Exception {
+    // CRLF, CR and LF line endings, an empty line, empty fields and no final newline
+    String input = "1,2,3\r\n4,5,6\r7,8,9\n\n,11,\r\n10,,12";
+    CsvTokenizer tokenizer = tokenizer(input);
+    BufferedReader lines = new BufferedReader(new StringReader(input));
+    String line;
+    while ((line = lines.readLine()) != null) {
+      assertTrue("The tokenizer should have line '" + line + "'", tokenizer.hasNext());
+      String[] fields = line.split(",", -1);
+      for (int i = 0; i < fields.length; i++) {
+        if (fields[i].isEmpty()) {
+          try {
+            tokenizer.nextInt();
+            fail("An empty field should not parse, as with Integer.parseInt");
+          } catch (NumberFormatException e) {
+            // the field is consumed
+          }
+        } else {
+          assertEquals("Line '" + line + "'", Integer.parseInt(fields[i]), tokenizer.nextInt());
+        }
+      }
+      tokenizer.endLine();
+    }
+    assertFalse("The tokenizer should have no more lines", tokenizer.hasNext());
+  }
+
+  @Test
+  public void tokenizerRejectsShortLine() throws Exception {
+    CsvTokenizer tokenizer = tokenizer("1,2,1\n0,1\n2,2,0\n");
+    assertEquals(1, tokenizer.nextInt());
+    assertEquals(2, tokenizer.nextInt());
+    assertEquals(1, tokenizer.nextInt());
+    tokenizer.endLine();
+    assertEquals(0, tokenizer.nextInt());
+    assertEquals(1, tokenizer.nextInt());
+    try {
+      tokenizer.nextInt();
+      fail("A field past the end of the line should not be read from the next line");
+    } catch (NumberFormatException e) {
+      // the line has too few fields
+    }
+    tokenizer.endLine();
+    assertEquals("The next line should be left intact", 2, tokenizer.nextInt());
+  }
+
+  @Test
+  public void batchReaderRejectsShortRow() throws Exception {
+    File dir = csvDir("1,2,1\n0,1\n2,2,0\n1,0,1\n");
+    try {
+      readAll(new IntData(dir.getPath(), ","));
+      fail("A row with too few fields should not be merged with the next row");
+    } catch (NumberFormatException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void batchReaderRejectsEmptyLine() throws Exception {
+    File dir = csvDir("1,2,1\n\n2,2,0\n");
+    try {
+      readAll(new IntData(dir.getPath(), ","));
+      fail("An empty line should not be read as a row");
+    } catch (NumberFormatException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void tokenizerOverBufferReadsAsOverStream() throws Exception {
+    String input = "1,-2.5,3e2\r\n4,5.25,-6E-1";
+    CsvTokenizer stream = tokenizer(input);
+    CsvTokenizer buffer =
+        new CsvTokenizer(ByteBuffer.wrap(input.getBytes(StandardCharsets.US_ASCII)), (byte) ',');
+    for (int line = 0; line < 2; line++) {
+      assertTrue(buffer.hasNext());
+      assertEquals(stream.nextInt(), buffer.nextInt());
+      assertEquals(stream.nextDouble(), buffer.nextDouble(), 0.0);
+      assertEquals(stream.nextDouble(), buffer.nextDouble(), 0.0);
+      buffer.endLine();
+      stream.endLine();
+    }
+    assertFalse(buffer.hasNext());
+  }
+
+  @Test
+  public void readModesReadTheSameRows() throws Exception {
+    List<String> expected = new ArrayList<String>();
+    File dir = shardedDir(expected);
+    assertEquals(
+        "The iterator should read every row",
+        expected,
+        iterateAll(new IntData(dir.getPath(), ",")));
+    assertEquals(
+        "The batch reader should read every row",
+        expected,
+        readAll(new IntData(dir.getPath(), ",")));
+
+    IntData mapped = new IntData(dir.getPath(), ",");
+    mapped.setMemoryMapped(true);
+    assertEquals("Memory mapped files should read the same rows", expected, readAll(mapped));
+
+    IntData pipelined = new IntData(dir.getPath(), ",");
+    pipelined.setPipelined(true);
+    assertEquals("Reading ahead should read the same rows", expected, readAll(pipelined));
+
+    IntData parallel = new IntData(dir.getPath(), ",");
+    parallel.setParsingThreads(2);
+    assertEquals("Parsing in parallel should read the same rows", expected, readAll(parallel));
+
+    IntData sequential = new IntData(dir.getPath(), ",");
+    sequential.setDecompressionThreads(0);
+    assertEquals(
+        "Decompressing on the calling thread should read the same rows",
+        expected,
+        readAll(sequential));
+
+    IntData regex = new IntData(dir.getPath(), "[,]");
+    assertEquals(
+        "A regular expression separator should read the same rows", expected, readAll(regex));
+
+    // the files were already written, the end marker ends the stream once they are read
+    new File(dir, TailingBatchReader.END_MARKER).createNewFile();
+    IntData tailing = new IntData(dir.getPath(), ",");
+    tailing.setTailing(true);
+    assertEquals("Tailing should read the same rows", expected, readAll(tailing));
+
+    // a stream, as from the standard input, of the concatenated files
+    ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+    for (File file : new IntData(dir.getPath(), ",").getDataFiles()) {
+      try (InputStream in = ShardDecompressor.open(file)) {
+        in.transferTo(concatenated);
+      }
+    }
+    IntData stream = new IntData(new ByteArrayInputStream(concatenated.toByteArray()), ",");
+    assertEquals("A stream should read the same rows", expected, readAll(stream));
+  }
+
+  @Test
+  public void indexSeeksToTheSameRows() throws Exception {
+    List<String> expected = new ArrayList<String>();
+    File dir = shardedDir(expected);
+    long[] firstExamples = {0, 1, 99, 100, 101, 250, 599, 600, 601, 1234, 1799, 1800, 2000};
+    List<List<String>> skipped = new ArrayList<List<String>>();
+    for (long first : firstExamples) {
+      IntData unindexed = new IntData(dir.getPath(), ",");
+      assertNull(unindexed.getIndex());
+      skipped.add(readAll(unindexed, first));
+    }
+
+    new IntData(dir.getPath(), ",").writeIndex(100);
+    IntData indexed = new IntData(dir.getPath(), ",");
+    assertNotNull("The written index should be used", indexed.getIndex());
+    assertEquals(expected.size(), indexed.getNbExamples());
+    assertEquals(3, indexed.getNbFeatures());
+    for (int i = 0; i < firstExamples.length; i++) {
+      int first = (int) Math.min(firstExamples[i], expected.size());
+      List<String> rest = expected.subList(first, expected.size());
+      assertEquals(
+          "Skipping to row " + first + " should read the remaining rows", rest, skipped.get(i));
+      assertEquals(
+          "Seeking with the index to row " + first + " should read the same rows as skipping",
+          rest,
+          readAll(indexed, firstExamples[i]));
+    }
+  }
+
+  @Test
+  public void indexIsRejectedWhenAFileChanges() throws Exception {
+    List<String> expected = new ArrayList<String>();
+    File dir = shardedDir(expected);
+    new IntData(dir.getPath(), ",").writeIndex(100);
+    File last = new IntData(dir.getPath(), ",").getDataFiles()[2];
+
+    assertTrue(last.setLastModified(last.lastModified() - 10000));
+    assertNull(
+        "An index should be rejected when a file was modified",
+        new IntData(dir.getPath(), ",").getIndex());
+
+    new IntData(dir.getPath(), ",").writeIndex(100);
+    assertNotNull(new IntData(dir.getPath(), ",").getIndex());
+    long lastModified = last.lastModified();
+    byte[] line = "\r\n1,1,1,1".getBytes(StandardCharsets.US_ASCII);
+    Files.write(last.toPath(), line, StandardOpenOption.APPEND);
+    assertTrue(last.setLastModified(lastModified));
+    IntData changed = new IntData(dir.getPath(), ",");
+    assertNull(
+        "An index should be rejected when the length of a file changed", changed.getIndex());
+    assertEquals(
+        "The examples should be counted without the index",
+        expected.size() + 1,
+        changed.getNbExamples());
+  }
+
+  @Test
+  public void indexRejectsPeriodZero() throws Exception {
+    File dir = shardedDir(new ArrayList<String>());
+    IntData data = new IntData(dir.getPath(), ",");
+    try {
+      data.writeIndex(0);
+      fail("An index with period 0 should not be written");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      DataIndex.build(data.getDataFiles(), (byte) ',', 0);
+      fail("An index with period 0 should not be built");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertFalse(new File(dir, DataIndex.FILE_NAME).exists());
+
+    data.writeIndex(100);
+    data.writeIndex(50);
+    assertEquals(
+        "A written index should replace the old one",
+        50,
+        new IntData(dir.getPath(), ",").getIndex().getPeriod());
+    assertFalse(
+        "No partly written index should be left",
+        new File(dir, DataIndex.FILE_NAME + ".part").exists());
+  }
+
+  @Test
+  public void packAndRead() throws Exception {
+    File csv = csvDir("0,1,2,1\n2,0,1,0\n1,1,0,1\n");
+    File packed = folder.newFolder("packed");
+    String path = new File(packed, "data" + PackedData.EXTENSION).getPath();
+    assertEquals(3, PackedData.pack(new IntData(csv.getPath(), ","), new int[] {3, 2, 3}, path));
+    assertTrue(PackedData.isPacked(packed.getPath()));
+    assertEquals(
+        "Packed data should hold the same examples as the csv data",
+        readAll(new IntData(csv.getPath(), ",")),
+        readAll(new PackedData(packed.getPath())));
+    assertEquals(
+        "The iterator should read the same examples as the batch reader",
+        readAll(new IntData(csv.getPath(), ",")),
+        iterateAll(new PackedData(packed.getPath())));
+
+    Iterator<Example<Integer>> it = new PackedData(packed.getPath()).iterator();
+    for (int i = 0; i < 3; i++) assertTrue(it.hasNext());
+    assertFalse(it.hasNext());
+    assertFalse("The iterator should stay at the end after closing", it.hasNext());
+  }
+
+  @Test
+  public void packRejectsWrongWidth() throws Exception {
+    File csv = csvDir("0,1,2,1,1\n2,0,1,0,0\n");
+    File packed = folder.newFolder("packed");
+    String path = new File(packed, "data" + PackedData.EXTENSION).getPath();
+    try {
+      PackedData.pack(new IntData(csv.getPath(), ","), new int[] {3, 2, 3}, path);
+      fail("Data with more features than nbFeatureValues should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertFalse(
+        "A failed pack should not leave packed data", PackedData.isPacked(packed.getPath()));
+    assertEquals("A failed pack should not leave any file", 0, packed.list().length);
+  }
+
+  @Test
+  public void packRejectsOutOfRangeValue() throws Exception {
+    File csv = csvDir("0,1,2,1\n2,5,1,0\n");
+    File packed = folder.newFolder("packed");
+    String path = new File(packed, "data" + PackedData.EXTENSION).getPath();
+    try {
+      PackedData.pack(new IntData(csv.getPath(), ","), new int[] {3, 2, 3}, path);
+      fail("A value out of range should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertFalse(
+        "A failed pack should not leave packed data", PackedData.isPacked(packed.getPath()));
+  }
+
+  @Test(timeout = 10000)
+  public void parallelReaderForwardsOpenFailure() throws Exception {
+    ParallelBatchReader<Integer> reader =
+        new ParallelBatchReader<Integer>(
+            file -> {
+              if (file == 1) throw new UncheckedIOException(new IOException("cannot open 1"));
+              return rowsReader(file, 10);
+            },
+            3,
+            slotBatches(2));
+    IntExampleBatch batch = new IntExampleBatch(5, 1); // the first file fills two batches
+    int nbRead = 0;
+    try {
+      while (reader.read(batch, batch.capacity()) > 0) nbRead += batch.size();
+      fail("A file that cannot be opened should be reported");
+    } catch (UncheckedIOException e) {
+      assertEquals("cannot open 1", e.getCause().getMessage());
+    }
+    assertEquals("The examples of the first file should be read", 10, nbRead);
+    reader.close();
+  }
+
+  @Test(timeout = 10000)
+  public void parallelReaderForwardsError() throws Exception {
+    ParallelBatchReader<Integer> reader =
+        new ParallelBatchReader<Integer>(
+            file -> file == 0 ? failingReader() : rowsReader(file, 10), 2, slotBatches(2));
+    IntExampleBatch batch = new IntExampleBatch(4, 1);
+    try {
+      while (reader.read(batch, batch.capacity()) > 0) {}
+      fail("An error of a worker should be rethrown");
+    } catch (StackOverflowError e) {
+      assertEquals("read failed", e.getMessage());
+    }
+    reader.close();
+  }
+
+  private static CsvTokenizer tokenizer(String input) {
+    return new CsvTokenizer(
+        new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), (byte) ',');
+  }
+
+  /** @return a new directory with a single csv file with the given lines */
+  private File csvDir(String lines) throws IOException {
+    File dir = folder.newFolder();
+    Files.write(new File(dir, "data.csv").toPath(), lines.getBytes(StandardCharsets.US_ASCII));
+    return dir;
+  }
+
+  /**
+   * Writes 1800 rows into a directory of three files: a csv file with "\n" line endings, a gzipped
+   * csv file and a csv file with "\r\n" line endings and without a final newline.
+   *
+   * @param rows receives the rows as readAll returns them
+   * @return the directory
+   */
+  private File shardedDir(List<String> rows) throws IOException {
+    File dir = folder.newFolder();
+    Random random = new Random(17);
+    String[] names = {"a.csv", "b.csv.gz", "c.csv"};
+    for (int f = 0; f < names.length; f++) {
+      StringBuilder content = new StringBuilder();
+      for (int line = 0; line < 600; line++) {
+        int[] values = {random.nextInt(3), random.nextInt(1000), random.nextInt(5)};
+        int classValue = random.nextInt(2);
+        if (line > 0) content.append(f == 2 ? "\r\n" : "\n");
+        content.append(values[0]).append(',').append(values[1]).append(',').append(values[2]);
+        content.append(',').append(classValue);
+        rows.add(Arrays.toString(values) + " " + classValue);
+      }
+      if (f < 2) content.append('\n');
+      byte[] bytes = content.toString().getBytes(StandardCharsets.US_ASCII);
+      File file = new File(dir, names[f]);
+      try (OutputStream out =
+          f == 1 ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)) {
+        out.write(bytes);
+      }
+    }
+    return dir;
+  }
+
+  /** @return every example of the data, read with the iterator, as readAll returns them */
+  private static List<String> iterateAll(Data<Integer> data) {
+    List<String> rows = new ArrayList<String>();
+    for (Example<Integer> example : data) {
+      int[] values = new int[example.attributeValues.length];
+      for (int i = 0; i < values.length; i++) values[i] = example.attributeValues[i];
+      rows.add(Arrays.toString(values) + " " + example.classValue);
+    }
+    return rows;
+  }
+
+  /** @return every example of the data, read with the batch reader, as one line per example */
+  private static List<String> readAll(Data<Integer> data) {
+    return readAll(data.batchReader(), data);
+  }
+
+  /** @return the examples of the data from the given one on, as readAll returns them */
+  private static List<String> readAll(Data<Integer> data, long firstExample) {
+    return readAll(data.batchReader(firstExample), data);
+  }
+
+  private static List<String> readAll(BatchReader<Integer> reader, Data<Integer> data) {
+    List<String> rows = new ArrayList<String>();
+    IntExampleBatch batch = (IntExampleBatch) data.newBatch(2);
+    while (reader.read(batch, batch.capacity()) > 0) {
+      for (int row = 0; row < batch.size(); row++) {
+        rows.add(Arrays.toString(batch.attributeValues[row]) + " " + batch.classValues[row]);
+      }
+    }
+    reader.close();
+    return rows;
+  }
+
+  /** @return a reader over nbRows examples whose value is file * 1000 + row */
+  private static BatchReader<Integer> rowsReader(int file, int nbRows) {
+    return new BatchReader<Integer>() {
+
+      private int next = 0;
+
+      @Override
+      public int read(ExampleBatch<Integer> batch, int max) {
+        int row = 0;
+        for (; row < max && next < nbRows; row++, next++) {
+          ((IntExampleBatch) batch).attributeValues[row][0] = file * 1000 + next;
+          batch.classValues[row] = next % 2;
+        }
+        batch.setSize(row);
+        return row;
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  private static BatchReader<Integer> failingReader() {
+    return new BatchReader<Integer>() {
+      @Override
+      public int read(ExampleBatch<Integer> batch, int max) {
+        throw new StackOverflowError("read failed");
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  private static List<List<ExampleBatch<Integer>>> slotBatches(int nbSlots) {
+    List<List<ExampleBatch<Integer>>> slots = new ArrayList<List<ExampleBatch<Integer>>>();
+    for (int i = 0; i < nbSlots; i++) {
+      List<ExampleBatch<Integer>> slot = new ArrayList<ExampleBatch<Integer>>();
+      for (int j = 0; j < 2; j++) slot.add(new IntExampleBatch(4, 1));
+      slots.add(slot);
+    }
+    return slots;
+  }
+}
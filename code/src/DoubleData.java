@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * This class implements Data for Doubles
+ *
+ * <p>DO NOT CHANGE THIS CLASS
+ */
+class DoubleData extends Data<Double> {
+
+  public DoubleData(String dataDir, String sep) throws FileNotFoundException {
+    super(dataDir, sep);
+  }
+
+  public DoubleData(InputStream in, String sep) {
+    super(in, sep);
+  }
+
+  @Override
+  protected Double parseAttribute(String attrString) {
+    return Double.parseDouble(attrString);
+  }
+
+  @Override
+  protected Double[] emptyAttributes(int i) {
+    return new Double[i];
+  }
+
+  @Override
+  public DoubleExampleBatch newBatch(int capacity) {
+    return new DoubleExampleBatch(capacity, getNbFeatures());
+  }
+}
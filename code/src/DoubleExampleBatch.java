@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.IOException;
+
+/** An example batch for numerical (double) attributes, used by Perceptron. */
+public class DoubleExampleBatch extends ExampleBatch<Double> {
+
+  public final double[][] attributeValues; /* attributeValues[row][feature] */
+
+  public DoubleExampleBatch(int capacity, int nbFeatures) {
+    super(capacity, nbFeatures);
+    this.attributeValues = new double[capacity][nbFeatures];
+  }
+
+  @Override
+  public void parseRow(int row, String[] fields) {
+    double[] values = attributeValues[row];
+    for (int i = 0; i < nbFeatures; i++) {
+      values[i] = Double.parseDouble(fields[i]);
+    }
+    classValues[row] = Integer.parseInt(fields[fields.length - 1]);
+  }
+
+  @Override
+  public void readRow(int row, CsvTokenizer tokenizer) throws IOException {
+    double[] values = attributeValues[row];
+    for (int i = 0; i < nbFeatures; i++) {
+      values[i] = tokenizer.nextDouble();
+    }
+    classValues[row] = tokenizer.nextInt();
+    tokenizer.endLine();
+  }
+
+  @Override
+  public void copyRow(ExampleBatch<Double> source, int sourceRow, int row) {
+    super.copyRow(source, sourceRow, row);
+    double[] values = ((DoubleExampleBatch) source).attributeValues[sourceRow];
+    System.arraycopy(values, 0, attributeValues[row], 0, nbFeatures);
+  }
+
+  @Override
+  public Double[] getAttributes(int row) {
+    Double[] attributes = new Double[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) attributes[i] = attributeValues[row][i];
+    return attributes;
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.IOException;
+
+/**
+ * A fixed-capacity block of examples stored in primitive arrays.
+ *
+ * <p>A batch is allocated once and then refilled by a {@link BatchReader} over and over again, so
+ * that reading, predicting and updating do not create any objects per example. The attribute
+ * values are kept by the concrete subclasses (see {@link IntExampleBatch} and {@link
+ * DoubleExampleBatch}), the class values are kept here.
+ */
+public abstract class ExampleBatch<T> {
+
+  public final int[] classValues; /* class value of every row */
+
+  protected final int nbFeatures;
+
+  private int size; /* number of valid rows */
+
+  protected ExampleBatch(int capacity, int nbFeatures) {
+    this.classValues = new int[capacity];
+    this.nbFeatures = nbFeatures;
+    this.size = 0;
+  }
+
+  /** @return the number of valid rows in this batch */
+  public int size() {
+    return size;
+  }
+
+  /** @return the maximal number of rows this batch can hold */
+  public int capacity() {
+    return classValues.length;
+  }
+
+  public int getNbFeatures() {
+    return nbFeatures;
+  }
+
+  /** Marks the first size rows as valid. */
+  public void setSize(int size) {
+    if (size < 0 || size > capacity()) throw new IllegalArgumentException("size " + size);
+    this.size = size;
+  }
+
+  /** Empties the batch, the arrays are kept for the next fill. */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Parses the fields of one csv line into the given row. The last field is the class value.
+   *
+   * @param row the row to overwrite
+   * @param fields the fields of the line
+   */
+  public abstract void parseRow(int row, String[] fields);
+
+  /**
+   * Reads the next csv line of the tokenizer into the given row. The last field is the class
+   * value.
+   *
+   * @param row the row to overwrite
+   * @param tokenizer the tokenizer, positioned at the start of a line
+   * @throws NumberFormatException if a field is not a number or the line has too few fields
+   */
+  public abstract void readRow(int row, CsvTokenizer tokenizer) throws IOException;
+
+  /**
+   * Copies a row of another batch of the same type into the given row.
+   *
+   * @param source the batch to copy from
+   * @param sourceRow the row to copy
+   * @param row the row to overwrite
+   */
+  public void copyRow(ExampleBatch<T> source, int sourceRow, int row) {
+    classValues[row] = source.classValues[sourceRow];
+  }
+
+  /**
+   * Returns a boxed copy of the attributes of a row. This allocates and should only be used by
+   * learners that have no primitive code path.
+   *
+   * @param row the row to copy
+   * @return the attribute values of the row
+   */
+  public abstract T[] getAttributes(int row);
+
+  /**
+   * Returns a boxed copy of a row as an example.
+   *
+   * @param row the row to copy
+   * @return the example at the given row
+   */
+  public Example<T> getExample(int row) {
+    return new Example<T>(getAttributes(row), classValues[row]);
+  }
+}
@@ -7,12 +7,20 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public abstract class IncrementalLearner<T> {
 
   protected int nbExamplesProcessed;
   double parameters[];
 
+  /* blocks with at least this many examples are scored in parallel by makePredictions */
+  private int parallelPredictionThreshold = DEFAULT_PARALLEL_PREDICTION_THRESHOLD;
+
+  public static final int DEFAULT_PARALLEL_PREDICTION_THRESHOLD = 8192;
+  private static final int PREDICTION_CHUNK = 1024; /* examples per ForkJoin task */
+
   /**
    * This method will update the parameters of you model using the given example.
    *
@@ -22,6 +30,21 @@ public abstract class IncrementalLearner<T> {
     nbExamplesProcessed++;
   }
 
+  /**
+   * This method will update the parameters of your model using all examples of the batch, in
+   * order.
+   *
+   * <p>The default implementation boxes every example, learners override this with a primitive
+   * code path.
+   *
+   * @param batch are the training examples
+   */
+  public void update(ExampleBatch<T> batch) {
+    for (int row = 0; row < batch.size(); row++) {
+      update(batch.getExample(row));
+    }
+  }
+
   /**
    * Uses the current model to calculate the probability that an attributeValues belongs to class
    * "1";
@@ -31,6 +54,96 @@ public abstract class IncrementalLearner<T> {
    */
   abstract double makePrediction(T[] example);
 
+  /**
+   * Uses the current model to calculate the probability that a row of the batch belongs to class
+   * "1";
+   *
+   * <p>The default implementation boxes the example, learners override this with a primitive code
+   * path.
+   *
+   * @param batch are the test examples
+   * @param row is the row of the example to classify
+   * @return the probability that the example belongs to class "1"
+   */
+  public double makePrediction(ExampleBatch<T> batch, int row) {
+    return makePrediction(batch.getAttributes(row));
+  }
+
+  /**
+   * Uses the current model to calculate the probability that every row of the batch belongs to
+   * class "1". Large batches are divided over the common ForkJoin pool, see
+   * setParallelPredictionThreshold. The model must not be updated meanwhile.
+   *
+   * @param batch are the test examples
+   * @param out receives the probability of every row, it is reused if it is large enough
+   * @return out, or a new array if out was null or too small
+   */
+  public double[] makePredictions(ExampleBatch<T> batch, double[] out) {
+    int size = batch.size();
+    double[] probs = out != null && out.length >= size ? out : new double[size];
+    beginPredictions();
+    try {
+      if (size < parallelPredictionThreshold) {
+        for (int row = 0; row < size; row++) probs[row] = makePrediction(batch, row);
+      } else {
+        ForkJoinPool.commonPool().invoke(new PredictionTask(batch, probs, 0, size));
+      }
+    } finally {
+      endPredictions();
+    }
+    return probs;
+  }
+
+  /**
+   * Sets the number of examples from which makePredictions scores a batch in parallel. The
+   * predictions do not depend on it.
+   *
+   * @param parallelPredictionThreshold the number of examples, Integer.MAX_VALUE to always score
+   *     on the calling thread
+   */
+  public void setParallelPredictionThreshold(int parallelPredictionThreshold) {
+    this.parallelPredictionThreshold = parallelPredictionThreshold;
+  }
+
+  /**
+   * Called by makePredictions before the rows are scored, possibly by several threads at once.
+   * Learners whose makePrediction changes state that is shared between examples prepare it here.
+   */
+  protected void beginPredictions() {}
+
+  /** Called by makePredictions after all rows are scored. */
+  protected void endPredictions() {}
+
+  /** Scores a range of rows, and splits it up when it is large. */
+  private class PredictionTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ExampleBatch<T> batch;
+    private final double[] probs;
+    private final int from;
+    private final int to;
+
+    PredictionTask(ExampleBatch<T> batch, double[] probs, int from, int to) {
+      this.batch = batch;
+      this.probs = probs;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= PREDICTION_CHUNK) {
+        for (int row = from; row < to; row++) probs[row] = makePrediction(batch, row);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(
+          new PredictionTask(batch, probs, from, middle),
+          new PredictionTask(batch, probs, middle, to));
+    }
+  }
+
   /**
    * Writes the current model to a file.
    *
@@ -153,6 +266,96 @@ public abstract class IncrementalLearner<T> {
     accuracyWriter.close();
   }
 
+  /**
+   * Does the same as makeLearningCurve and produces the same files, but reads the data in reusable
+   * batches. The learner is tested and trained through its batch methods, so no objects are
+   * created per example (apart from the optional predictions file).
+   *
+   * @param data is the data
+   * @param thresh is the threshold for labeling an attributeValues as belonging to class "1"
+   * @param out the stem of the output file(s). The accuracy is written to out.acc, the predictions
+   *     to out.probs
+   * @param reportingPeriod How often the accuracy should be reported (once every period, where
+   *     period is expressed in number of examples)
+   * @param writeOutAllPredictions when this is true, all the predictions are written to file.
+   */
+  public void makeBatchLearningCurve(
+      Data<T> data, double thresh, String out, int reportingPeriod, boolean writeOutAllPredictions)
+      throws FileNotFoundException {
+
+    System.out.println(out);
+    String parameterFileString = getParameterFileString();
+    PrintWriter accuracyWriter = new PrintWriter(out + parameterFileString + "acc");
+    PrintWriter predictionWriter = writeOutAllPredictions ? new PrintWriter(out + parameterFileString + "probs") : null;
+
+    int nbToTest = 10;
+
+    System.out.println("Start training/testing");
+
+    BatchReader<T> reader = data.batchReader();
+    int capacity = Math.max(nbToTest, reportingPeriod);
+    ExampleBatch<T> buffer = data.newBatch(capacity);
+    ExampleBatch<T> testExamples = data.newBatch(capacity);
+    double[] probs = new double[capacity];
+
+    // initialize buffer
+    reader.read(buffer, nbToTest);
+
+    // makeLearningCurve looks one example ahead after filling the buffer and never uses it, skip it
+    // as well so that both produce the same learning curve
+    reader.read(testExamples, 1);
+
+    while (true) {
+      nbToTest = Math.min(reportingPeriod, nbToTest * 2);
+      int i = reader.read(testExamples, nbToTest);
+      if (i == 0) break; // there are no examples left
+
+      // calculate accuracy with test examples, the model does not change while testing
+      double accuracy = 0;
+      makePredictions(testExamples, probs);
+      for (int row = 0; row < i; row++) {
+        double prob = probs[row];
+
+        double prediction = (prob > thresh) ? 1 : 0;
+        if (prediction - testExamples.classValues[row] == 0) accuracy += 1;
+
+        // write prediction to file
+        if (writeOutAllPredictions) {
+          predictionWriter.println(prob + "\t" + testExamples.classValues[row]);
+        }
+      }
+      accuracyWriter.println(nbExamplesProcessed + "\t" + accuracy / (i - 1));
+      accuracyWriter.flush();
+      System.out.println(
+          "trained with: "
+              + nbExamplesProcessed
+              + "\taccuracy: "
+              + accuracy / (i - 1)
+              + "\t"
+              + getInfo());
+
+      // update the model with the examples from the buffer
+      update(buffer);
+
+      ExampleBatch<T> tmp = buffer;
+      buffer = testExamples;
+      testExamples = tmp;
+    }
+    reader.close();
+    accuracyWriter.close();
+    if (predictionWriter != null) predictionWriter.close();
+  }
+
+  /** @return the learner parameters as they appear in the output file names, e.g. ".0.001." */
+  private String getParameterFileString() {
+    String parameterFileString = ".";
+    for (double parameter : parameters){
+      parameterFileString += String.valueOf(parameter);
+      parameterFileString += ".";
+    }
+    return parameterFileString;
+  }
+
   /**
    * Info to print when testing. This is mainly for debug purpose
    *
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * This class implements Data for Integers
+ *
+ * <p>DO NOT CHANGE THIS CLASS
+ */
+class IntData extends Data<Integer> {
+
+  public IntData(String dataDir, String sep) throws FileNotFoundException {
+    super(dataDir, sep);
+  }
+
+  public IntData(InputStream in, String sep) {
+    super(in, sep);
+  }
+
+  protected IntData(String dataDir, String sep, String extension) throws FileNotFoundException {
+    super(dataDir, sep, extension);
+  }
+
+  @Override
+  protected Integer parseAttribute(String attrString) {
+    return Integer.parseInt(attrString);
+  }
+
+  @Override
+  protected Integer[] emptyAttributes(int i) {
+    return new Integer[i];
+  }
+
+  @Override
+  public IntExampleBatch newBatch(int capacity) {
+    return new IntExampleBatch(capacity, getNbFeatures());
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 3) {
+      throw new Error("Expected 2 arguments, got " + args.length + ".");
+    }
+
+    try {
+      Data<Integer> d = new IntData(args[0], args[1]);
+      d.print();
+    } catch (FileNotFoundException e) {
+      System.err.print(e.toString());
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.IOException;
+
+/** An example batch for categorical (integer) attributes, used by Vfdt. */
+public class IntExampleBatch extends ExampleBatch<Integer> {
+
+  public final int[][] attributeValues; /* attributeValues[row][feature] */
+
+  public IntExampleBatch(int capacity, int nbFeatures) {
+    super(capacity, nbFeatures);
+    this.attributeValues = new int[capacity][nbFeatures];
+  }
+
+  @Override
+  public void parseRow(int row, String[] fields) {
+    int[] values = attributeValues[row];
+    for (int i = 0; i < nbFeatures; i++) {
+      values[i] = Integer.parseInt(fields[i]);
+    }
+    classValues[row] = Integer.parseInt(fields[fields.length - 1]);
+  }
+
+  @Override
+  public void readRow(int row, CsvTokenizer tokenizer) throws IOException {
+    int[] values = attributeValues[row];
+    for (int i = 0; i < nbFeatures; i++) {
+      values[i] = tokenizer.nextInt();
+    }
+    classValues[row] = tokenizer.nextInt();
+    tokenizer.endLine();
+  }
+
+  @Override
+  public void copyRow(ExampleBatch<Integer> source, int sourceRow, int row) {
+    super.copyRow(source, sourceRow, row);
+    int[] values = ((IntExampleBatch) source).attributeValues[sourceRow];
+    System.arraycopy(values, 0, attributeValues[row], 0, nbFeatures);
+  }
+
+  @Override
+  public Integer[] getAttributes(int row) {
+    Integer[] attributes = new Integer[nbFeatures];
+    for (int i = 0; i < nbFeatures; i++) attributes[i] = attributeValues[row][i];
+    return attributes;
+  }
+}
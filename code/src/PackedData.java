@@ -0,0 +1,385 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+/**
+ * This class reads categorical data from bit-packed files.
+ *
+ * <p>A packed file starts with a header: the magic number, the format version, the number of
+ * features, the number of values of every feature and the number of examples. Then every example
+ * follows as a run of bits, without any alignment: feature i takes just enough bits to hold
+ * nbFeatureValues[i] - 1 and the class takes one bit. Bits are written from the least significant
+ * bit of every byte onwards.
+ *
+ * <p>Packed files are made from a directory of csv files with the main method of this class.
+ */
+public class PackedData extends IntData {
+
+  public static final String EXTENSION = ".vfdtp";
+
+  private static final int MAGIC = 0x56464450; /* "VFDP" */
+  private static final int VERSION = 1;
+
+  public PackedData(String dataDir) throws FileNotFoundException {
+    super(dataDir, ",", EXTENSION);
+  }
+
+  /**
+   * Checks whether a directory holds packed data.
+   *
+   * @param dataDir the directory
+   * @return true if the directory contains at least one packed file
+   */
+  public static boolean isPacked(String dataDir) {
+    File[] packedFiles =
+        new File(dataDir)
+            .listFiles(
+                new FilenameFilter() {
+                  @Override
+                  public boolean accept(File file, String s) {
+                    return s.endsWith(EXTENSION);
+                  }
+                });
+    return packedFiles != null && packedFiles.length > 0;
+  }
+
+  /**
+   * Get the number of features, from the header of the first file
+   *
+   * @return number of features
+   */
+  @Override
+  public int getNbFeatures() {
+    for (File file : getDataFiles()) {
+      try (PackedFileReader reader = new PackedFileReader(file)) {
+        return reader.nbValues.length;
+      } catch (IOException e) {
+        System.err.println(e.toString());
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Get the number of examples, from the headers of all files
+   *
+   * @return number of examples
+   */
+  @Override
+  public long getNbExamples() {
+    long nbExamples = 0;
+    for (File file : getDataFiles()) {
+      try (PackedFileReader reader = new PackedFileReader(file)) {
+        nbExamples += reader.nbExamplesLeft;
+      } catch (IOException e) {
+        System.err.println(e.toString());
+      }
+    }
+    return nbExamples;
+  }
+
+  /** Packed files are not indexed, their headers already hold the schema and the counts. */
+  @Override
+  protected DataIndex getIndex() {
+    return null;
+  }
+
+  /** @return false, packed files need no index */
+  @Override
+  public boolean canIndex() {
+    return false;
+  }
+
+  /**
+   * Returns an iterator over all examples.
+   *
+   * <p>Like the csv iterator, every call to hasNext moves on to the next example.
+   *
+   * @return iterator over all examples
+   */
+  @Override
+  public Iterator<Example<Integer>> iterator() {
+    return new Iterator<Example<Integer>>() {
+
+      private final BatchReader<Integer> reader = fileBatchReader(getDataFiles(), 0);
+      private final IntExampleBatch batch = newBatch(1);
+      private boolean done = false;
+
+      @Override
+      public boolean hasNext() {
+        if (done) return false;
+        if (reader.read(batch, 1) > 0) return true;
+        // all examples are read, as the csv iterator the reader closes its file
+        reader.close();
+        done = true;
+        return false;
+      }
+
+      @Override
+      public Example<Integer> next() {
+        return batch.getExample(0);
+      }
+    };
+  }
+
+  @Override
+  protected BatchReader<Integer> fileBatchReader(
+      final File[] files, int decompressionThreads) {
+    return new BatchReader<Integer>() {
+
+      private int currentFileIndex = -1;
+      private PackedFileReader currentFile = null;
+
+      @Override
+      public int read(ExampleBatch<Integer> batch, int max) {
+        IntExampleBatch intBatch = (IntExampleBatch) batch;
+        int row = 0;
+        while (row < max) {
+          // open new file if needed
+          while (currentFile == null && currentFileIndex + 1 < files.length) {
+            currentFileIndex++;
+            try {
+              currentFile = new PackedFileReader(files[currentFileIndex]);
+            } catch (IOException e) {
+              System.err.println(e.toString());
+            }
+          }
+          if (currentFile == null) break; // there are no datafiles left
+
+          // read next example of current file
+          try {
+            if (currentFile.hasNext()) {
+              intBatch.classValues[row] = currentFile.readRow(intBatch.attributeValues[row]);
+              row++;
+            } else {
+              close();
+            }
+          } catch (IOException e) {
+            System.err.println(e.toString());
+            close();
+          }
+        }
+        batch.setSize(row);
+        return row;
+      }
+
+      @Override
+      public void close() {
+        if (currentFile != null) {
+          try {
+            currentFile.close();
+          } catch (IOException e) {
+
+          }
+          currentFile = null;
+        }
+      }
+    };
+  }
+
+  /**
+   * Number of bits needed for a feature.
+   *
+   * @param nbValues the number of values of the feature
+   * @return the number of bits to hold nbValues - 1
+   */
+  private static int nbBits(int nbValues) {
+    return nbValues <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(nbValues - 1);
+  }
+
+  /** Reads the examples of one packed file. */
+  private static class PackedFileReader implements Closeable {
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int position = 0;
+    private int limit = 0;
+
+    private final int[] nbValues;
+    private final int[] nbBits;
+    private long nbExamplesLeft;
+
+    private long bits = 0; /* bits read from the file but not yet used */
+    private int nbBitsLeft = 0;
+
+    PackedFileReader(File file) throws IOException {
+      in = new FileInputStream(file);
+      try {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) throw new IOException(file + " is not a packed data file");
+        int version = header.readInt();
+        if (version != VERSION) {
+          throw new IOException(file + " has unsupported packed data version " + version);
+        }
+        nbValues = new int[header.readInt()];
+        nbBits = new int[nbValues.length];
+        for (int i = 0; i < nbValues.length; i++) {
+          nbValues[i] = header.readInt();
+          nbBits[i] = nbBits(nbValues[i]);
+        }
+        nbExamplesLeft = header.readLong();
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    boolean hasNext() {
+      return nbExamplesLeft > 0;
+    }
+
+    /**
+     * Reads the next example.
+     *
+     * @param attributeValues the array to overwrite with the feature values
+     * @return the class value
+     */
+    int readRow(int[] attributeValues) throws IOException {
+      for (int i = 0; i < nbBits.length; i++) {
+        attributeValues[i] = readBits(nbBits[i]);
+      }
+      nbExamplesLeft--;
+      return readBits(1);
+    }
+
+    private int readBits(int n) throws IOException {
+      while (nbBitsLeft < n) {
+        if (position == limit) {
+          limit = in.read(buffer, 0, buffer.length);
+          position = 0;
+          if (limit <= 0) throw new EOFException("packed data file is truncated");
+        }
+        bits |= (long) (buffer[position++] & 0xff) << nbBitsLeft;
+        nbBitsLeft += 8;
+      }
+      int value = (int) (bits & ((1L << n) - 1));
+      bits >>>= n;
+      nbBitsLeft -= n;
+      return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Packs all examples of the data into a single packed file. The file is written next to the path
+   * and only moved to the path once it is complete, so a failed pack leaves no packed file behind.
+   *
+   * @param data the data to pack
+   * @param nbFeatureValues the number of values of every feature
+   * @param path the packed file to write
+   * @return the number of packed examples
+   * @throws IllegalArgumentException if the data does not have a feature for every entry of
+   *     nbFeatureValues, a value does not fit its feature or a class is not 0 or 1
+   */
+  public static long pack(Data<Integer> data, int[] nbFeatureValues, String path)
+      throws IOException {
+    int nbFeatures = data.getNbFeatures();
+    if (nbFeatures != nbFeatureValues.length) {
+      throw new IllegalArgumentException(
+          "the data has "
+              + nbFeatures
+              + " features, but "
+              + nbFeatureValues.length
+              + " numbers of feature values are given");
+    }
+    int[] nbBits = new int[nbFeatureValues.length];
+    for (int i = 0; i < nbFeatureValues.length; i++) nbBits[i] = nbBits(nbFeatureValues[i]);
+
+    File packed = new File(path);
+    File partial = new File(path + ".part");
+    long nbExamples = 0;
+    boolean complete = false;
+    BatchReader<Integer> reader = data.batchReader();
+    try (FileOutputStream file = new FileOutputStream(partial);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(nbFeatureValues.length);
+      for (int nbValues : nbFeatureValues) out.writeInt(nbValues);
+      long countPosition = out.size();
+      out.writeLong(0); // filled in at the end
+
+      IntExampleBatch batch = (IntExampleBatch) data.newBatch(4096);
+      long bits = 0;
+      int nbPendingBits = 0;
+      while (reader.read(batch, batch.capacity()) > 0) {
+        for (int row = 0; row < batch.size(); row++) {
+          for (int i = 0; i <= nbBits.length; i++) {
+            int value;
+            int n;
+            if (i < nbBits.length) {
+              value = batch.attributeValues[row][i];
+              n = nbBits[i];
+              if (value < 0 || value >= Math.max(nbFeatureValues[i], 1)) {
+                throw new IllegalArgumentException(
+                    "example "
+                        + nbExamples
+                        + ": value "
+                        + value
+                        + " out of range for feature "
+                        + i);
+              }
+            } else {
+              value = batch.classValues[row];
+              n = 1;
+              if (value != 0 && value != 1) {
+                throw new IllegalArgumentException(
+                    "example " + nbExamples + ": class value " + value + " is not 0 or 1");
+              }
+            }
+            bits |= (long) value << nbPendingBits;
+            nbPendingBits += n;
+            while (nbPendingBits >= 8) {
+              out.write((int) bits);
+              bits >>>= 8;
+              nbPendingBits -= 8;
+            }
+          }
+          nbExamples++;
+        }
+      }
+      if (nbPendingBits > 0) out.write((int) bits);
+      out.flush();
+
+      ByteBuffer count = ByteBuffer.allocate(8);
+      count.putLong(nbExamples).flip();
+      file.getChannel().write(count, countPosition);
+      complete = true;
+    } finally {
+      reader.close();
+      if (!complete) partial.delete();
+    }
+    Files.move(partial.toPath(), packed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return nbExamples;
+  }
+
+  /** Converts a directory of csv files to a packed file. */
+  public static void main(String[] args) {
+    if (args.length < 3) {
+      System.err.println(
+          "Usage: java PackedData <csv data set> <nbFeatureValues> <packed data set>");
+      throw new Error("Expected 3 arguments, got " + args.length + ".");
+    }
+    try {
+      Data<Integer> data = new IntData(args[0], ",");
+      int[] nbFeatureValues = Vfdt.parseNbFeatureValues(args[1]);
+      File outDir = new File(args[2]);
+      outDir.mkdirs();
+      String path = new File(outDir, "data" + EXTENSION).getPath();
+      long nbExamples = pack(data, nbFeatureValues, path);
+      System.out.println("packed " + nbExamples + " examples into " + path);
+    } catch (IOException e) {
+      System.err.println(e.toString());
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+/**
+ * Parses several data files at the same time and merges them back in the original order.
+ *
+ * <p>Every worker thread parses one file into its own slot, a small ring of batches. The reader
+ * consumes the slots strictly in file order: all examples of file i are returned before the first
+ * example of file i + 1, so the examples come out in the same order as from a sequential reader.
+ * When the reader finishes a file, its slot is handed to the next file that is not being parsed
+ * yet. A worker waits when its slot is full, which bounds the memory to the batches of the slots.
+ */
+public class ParallelBatchReader<T> implements BatchReader<T> {
+
+  private final IntFunction<BatchReader<T>> fileReaders;
+  private final int nbFiles;
+  private final ArrayList<Slot> slots;
+  private final ExecutorService pool;
+
+  private int currentFile = 0; /* the file that is being consumed */
+  private ExampleBatch<T> current; /* the batch that is being consumed */
+  private int currentRow;
+
+  /**
+   * Starts parsing the first files.
+   *
+   * @param fileReaders creates a reader over a single file, given the index of the file
+   * @param nbFiles the number of files
+   * @param slotBatches the batches of every slot, one list per worker thread
+   */
+  public ParallelBatchReader(
+      IntFunction<BatchReader<T>> fileReaders,
+      int nbFiles,
+      List<List<ExampleBatch<T>>> slotBatches) {
+    this.fileReaders = fileReaders;
+    this.nbFiles = nbFiles;
+    this.pool =
+        Executors.newFixedThreadPool(
+            slotBatches.size(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "data-parse");
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    this.slots = new ArrayList<Slot>(slotBatches.size());
+    for (int i = 0; i < slotBatches.size(); i++) {
+      Slot slot = new Slot(slotBatches.get(i));
+      slots.add(slot);
+      if (i < nbFiles) slot.start(i);
+    }
+  }
+
+  @Override
+  public int read(ExampleBatch<T> batch, int max) {
+    int row = 0;
+    while (row < max && currentFile < nbFiles) {
+      Slot slot = slots.get(currentFile % slots.size());
+      if (current == null) {
+        try {
+          current = slot.filled.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        currentRow = 0;
+        if (current.size() == 0) {
+          // the file is exhausted, hand the slot to the next file
+          slot.free.add(current);
+          current = null;
+          if (slot.failure != null) rethrowFailure(slot.failure);
+          if (currentFile + slots.size() < nbFiles) slot.start(currentFile + slots.size());
+          currentFile++;
+          continue;
+        }
+      }
+
+      // copy as many rows as possible from the current batch
+      int n = Math.min(max - row, current.size() - currentRow);
+      for (int i = 0; i < n; i++) {
+        batch.copyRow(current, currentRow++, row++);
+      }
+      if (currentRow == current.size()) {
+        slot.free.add(current);
+        current = null;
+      }
+    }
+    batch.setSize(row);
+    return row;
+  }
+
+  /** Rethrows the error of a worker on the consuming thread. */
+  private static void rethrowFailure(Throwable failure) {
+    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+    if (failure instanceof Error) throw (Error) failure;
+    throw new IllegalStateException(failure);
+  }
+
+  @Override
+  public void close() {
+    pool.shutdownNow();
+  }
+
+  /** The batches that one file is parsed into. */
+  private class Slot {
+
+    private final BlockingQueue<ExampleBatch<T>> free; /* batches that can be filled */
+    private final BlockingQueue<ExampleBatch<T>> filled; /* batches ready to be consumed */
+    private volatile Throwable failure; /* error of the worker, rethrown by read */
+
+    Slot(List<ExampleBatch<T>> batches) {
+      this.free = new ArrayBlockingQueue<ExampleBatch<T>>(batches.size(), false, batches);
+      this.filled = new ArrayBlockingQueue<ExampleBatch<T>>(batches.size());
+    }
+
+    void start(int file) {
+      pool.execute(() -> parse(file));
+    }
+
+    /**
+     * Runs on a worker: fills batches until the file is exhausted, an empty batch marks the end. The
+     * end is also marked when the file cannot be opened or read, so read never waits for a worker
+     * that died.
+     */
+    private void parse(int file) {
+      BatchReader<T> reader = null;
+      ExampleBatch<T> end = null; /* the batch that is being filled, empty at the end */
+      boolean closed = false;
+      try {
+        reader = fileReaders.apply(file);
+        while (true) {
+          end = free.take();
+          if (reader.read(end, end.capacity()) == 0) break;
+          filled.put(end);
+          end = null;
+        }
+      } catch (InterruptedException e) {
+        closed = true; // closed by the consumer
+      } catch (Throwable e) {
+        failure = e;
+      } finally {
+        if (reader != null) {
+          try {
+            reader.close();
+          } catch (Throwable e) {
+            if (failure == null) failure = e;
+          }
+        }
+        if (!closed) {
+          try {
+            if (end == null) end = free.take();
+            end.clear();
+            filled.put(end);
+          } catch (InterruptedException e) {
+            // closed by the consumer
+          }
+        }
+      }
+    }
+  }
+}
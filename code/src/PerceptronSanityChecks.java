@@ -6,6 +6,7 @@ import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.util.Random;
 import org.junit.*;
 
 public class PerceptronSanityChecks {
@@ -72,4 +73,32 @@ public class PerceptronSanityChecks {
           0.0000001);
     }
   }
+
+  @Test
+  public void parallelPredictionsAsRowByRow() throws Exception {
+    Random random = new Random(23);
+    DoubleExampleBatch batch = new DoubleExampleBatch(5000, 3); // several ForkJoin tasks
+    for (int row = 0; row < batch.capacity(); row++) {
+      for (int i = 0; i < 3; i++) batch.attributeValues[row][i] = random.nextDouble();
+      double[] values = batch.attributeValues[row];
+      batch.classValues[row] = values[0] > values[2] ? 1 : 0;
+    }
+    batch.setSize(batch.capacity());
+    learner.update(batch);
+    double[] expected = new double[batch.size()];
+    for (int row = 0; row < batch.size(); row++) {
+      expected[row] = learner.makePrediction(batch.attributeValues[row]);
+    }
+
+    learner.setParallelPredictionThreshold(1);
+    double[] out = new double[batch.size()];
+    assertSame(
+        "An array that is large enough should be reused", out, learner.makePredictions(batch, out));
+    assertArrayEquals(
+        "Parallel predictions should equal row by row predictions", expected, out, 0.0);
+    double[] probs = learner.makePredictions(batch, new double[1]);
+    assertEquals("An array that is too small should be replaced", batch.size(), probs.length);
+    assertArrayEquals(
+        "Parallel predictions should equal row by row predictions", expected, probs, 0.0);
+  }
 }
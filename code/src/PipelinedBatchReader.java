@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads and parses ahead on a background thread.
+ *
+ * <p>The background thread fills a fixed ring of batches from the source reader, while the
+ * learner consumes the batches that are already filled. When all batches of the ring are filled,
+ * the background thread waits until the learner hands one back. There is only one producer and
+ * the ring is consumed in the order it was filled, so the examples come out in exactly the same
+ * order as from the source.
+ */
+public class PipelinedBatchReader<T> implements BatchReader<T> {
+
+  private final BatchReader<T> source;
+  private final BlockingQueue<ExampleBatch<T>> free; /* batches that can be filled */
+  private final BlockingQueue<ExampleBatch<T>> filled; /* batches ready to be consumed */
+  private final Thread producer;
+
+  private volatile Throwable failure; /* error of the producer, rethrown by read */
+
+  private ExampleBatch<T> current; /* the batch that is being consumed */
+  private int currentRow;
+  private boolean exhausted = false;
+
+  /**
+   * Starts reading ahead.
+   *
+   * @param source the reader to read ahead from, it is only used by the background thread
+   * @param ring the batches to fill, at least two to overlap reading with learning
+   */
+  public PipelinedBatchReader(BatchReader<T> source, List<ExampleBatch<T>> ring) {
+    this.source = source;
+    this.free = new ArrayBlockingQueue<ExampleBatch<T>>(ring.size(), false, ring);
+    this.filled = new ArrayBlockingQueue<ExampleBatch<T>>(ring.size());
+    this.producer = new Thread(this::produce, "data-prefetch");
+    this.producer.setDaemon(true);
+    this.producer.start();
+  }
+
+  /** Fills batches until the source is exhausted. An empty batch marks the end. */
+  private void produce() {
+    try {
+      int size;
+      do {
+        ExampleBatch<T> batch = free.take();
+        try {
+          size = source.read(batch, batch.capacity());
+        } catch (Throwable e) {
+          failure = e;
+          batch.clear();
+          size = 0;
+        }
+        filled.put(batch);
+      } while (size > 0);
+    } catch (InterruptedException e) {
+      // closed by the consumer
+    } finally {
+      source.close();
+    }
+  }
+
+  @Override
+  public int read(ExampleBatch<T> batch, int max) {
+    int row = 0;
+    while (row < max && !exhausted) {
+      if (current == null) {
+        try {
+          current = filled.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        currentRow = 0;
+        if (current.size() == 0) {
+          exhausted = true;
+          if (failure != null) rethrowFailure();
+          break;
+        }
+      }
+
+      // copy as many rows as possible from the current batch
+      int n = Math.min(max - row, current.size() - currentRow);
+      for (int i = 0; i < n; i++) {
+        batch.copyRow(current, currentRow++, row++);
+      }
+      if (currentRow == current.size()) {
+        free.add(current);
+        current = null;
+      }
+    }
+    batch.setSize(row);
+    return row;
+  }
+
+  /** Rethrows the error of the producer on the consuming thread. */
+  private void rethrowFailure() {
+    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+    if (failure instanceof Error) throw (Error) failure;
+    throw new IllegalStateException(failure);
+  }
+
+  @Override
+  public void close() {
+    producer.interrupt();
+  }
+}
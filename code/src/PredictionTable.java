@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+
+/**
+ * The counts of a VfdtNode laid out for prediction. For every densely counted feature and value,
+ * the positive and the negative count are packed in one long, so scoring an example takes one read
+ * per feature, without looking up offsets or count widths. Sparsely counted features are looked up
+ * in their SparseCounts.
+ *
+ * <p>The node keeps the table up to date with add() while it counts examples. A table can only
+ * hold counts up to 2^32 - 1, add() returns false when a count would not fit anymore.
+ *
+ * <p>A table takes 8 bytes per value, where the counts take 2 bytes per value while they are
+ * narrow. Its bytes count in the memory budget, so under a budget the speed of prediction is paid
+ * with leaves that are deactivated sooner.
+ */
+public class PredictionTable {
+
+  private static final long MAX_COUNT = 0xFFFFFFFFL;
+  private static final long POSITIVE = 1L << 32;
+
+  private final int[] starts; /* per feature, the index of value 0 in packed, -1 if not dense */
+  private final int[] denseFeatures;
+  private final int[] denseStarts; /* per dense feature */
+  private final int[] nbValues; /* per dense feature */
+  private final int[] sparseFeatures;
+  private final SparseCounts[] sparseCounts; /* per sparse feature */
+  private final long[] packed; /* positive count << 32 | negative count */
+
+  private PredictionTable(
+      int[] starts,
+      int[] denseFeatures,
+      int[] denseStarts,
+      int[] nbValues,
+      int[] sparseFeatures,
+      SparseCounts[] sparseCounts,
+      long[] packed) {
+    this.starts = starts;
+    this.denseFeatures = denseFeatures;
+    this.denseStarts = denseStarts;
+    this.nbValues = nbValues;
+    this.sparseFeatures = sparseFeatures;
+    this.sparseCounts = sparseCounts;
+    this.packed = packed;
+  }
+
+  /**
+   * Lays out the counts of an active node.
+   *
+   * @param node the node
+   * @return the table, null if a count does not fit
+   */
+  public static PredictionTable of(VfdtNode node) {
+    int nbFeatures = node.getNbCountFeatures();
+    int nbDense = 0;
+    int nbSparse = 0;
+    int size = 0;
+    for (int i = 0; i < nbFeatures; i++) {
+      if (node.getCountOffset(i) >= 0) {
+        nbDense++;
+        size += node.getNbCountedValues(i);
+      } else if (node.getNbCountedValues(i) > 0) {
+        nbSparse++;
+      }
+    }
+
+    int[] starts = new int[nbFeatures];
+    int[] denseFeatures = new int[nbDense];
+    int[] denseStarts = new int[nbDense];
+    int[] nbValues = new int[nbDense];
+    int[] sparseFeatures = new int[nbSparse];
+    SparseCounts[] sparseCounts = new SparseCounts[nbSparse];
+    long[] packed = new long[size];
+    CountArray counts = node.getCounts();
+    int dense = 0;
+    int sparse = 0;
+    int start = 0;
+    for (int i = 0; i < nbFeatures; i++) {
+      int offset = node.getCountOffset(i);
+      starts[i] = -1;
+      if (offset >= 0) {
+        starts[i] = start;
+        denseFeatures[dense] = i;
+        denseStarts[dense] = start;
+        nbValues[dense++] = node.getNbCountedValues(i);
+        for (int j = 0; j < node.getNbCountedValues(i); j++) {
+          long negatives = counts.get(offset + 2 * j);
+          long positives = counts.get(offset + 2 * j + 1);
+          if (negatives > MAX_COUNT || positives > MAX_COUNT) return null;
+          packed[start++] = positives << 32 | negatives;
+        }
+      } else if (node.getNbCountedValues(i) > 0) {
+        sparseFeatures[sparse] = i;
+        sparseCounts[sparse++] = node.getSparseCounts(i);
+      }
+    }
+    return new PredictionTable(
+        starts, denseFeatures, denseStarts, nbValues, sparseFeatures, sparseCounts, packed);
+  }
+
+  /**
+   * Counts an example for a densely counted feature, as the node counts it.
+   *
+   * @param feature the feature
+   * @param value the value of the feature
+   * @param classValue the class of the example
+   * @return false if the count does not fit anymore, the table must then be dropped
+   */
+  public boolean add(int feature, int value, int classValue) {
+    int index = starts[feature] + value;
+    long count = classValue == 1 ? packed[index] >>> 32 : packed[index] & MAX_COUNT;
+    if (count == MAX_COUNT) return false;
+    packed[index] += classValue == 1 ? POSITIVE : 1;
+    return true;
+  }
+
+  /**
+   * Sums the counts of the values of the example over all counted features.
+   *
+   * @param example the values of the features
+   * @return the positive sum over the sum of all counts, 0 if no negative count was summed
+   */
+  public double predict(int[] example) {
+    if (starts.length == 0) return 0.5; // no examples
+    long positives = 0;
+    long negatives = 0;
+    for (int i = 0; i < denseFeatures.length; i++) {
+      int value = example[denseFeatures[i]];
+      if (value < nbValues[i]) {
+        long counts = packed[denseStarts[i] + value];
+        positives += counts >>> 32;
+        negatives += counts & MAX_COUNT;
+      }
+    }
+    for (int i = 0; i < sparseFeatures.length; i++) {
+      SparseCounts sparse = sparseCounts[i];
+      positives += sparse.get(example[sparseFeatures[i]], 1);
+      negatives += sparse.get(example[sparseFeatures[i]], 0);
+    }
+    return negatives > 0 ? (double) positives / (negatives + positives) : 0;
+  }
+
+  /** @return the estimated size in bytes of the table */
+  public long getBytes() {
+    return 7 * 16 + 4L * (starts.length + 3 * denseFeatures.length) + 8L * packed.length;
+  }
+}
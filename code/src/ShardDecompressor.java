@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens the data files in order and decompresses gzipped files ahead on worker threads.
+ *
+ * <p>When a file is opened, the gzipped files among the next files are already being decompressed,
+ * one worker thread per file. Every worker stays at most a few chunks ahead of its reader, so the
+ * memory use does not depend on the size of the files.
+ */
+public class ShardDecompressor {
+
+  private static final int CHUNK_SIZE = 1 << 18; /* bytes per decompressed chunk */
+  private static final int CHUNKS_AHEAD = 16; /* chunks a worker may decompress ahead */
+
+  private final File[] files;
+  private final int nbThreads;
+  private ExecutorService pool = null; /* created for the first gzipped file */
+  private final HashMap<Integer, DecompressedStream> started =
+      new HashMap<Integer, DecompressedStream>();
+
+  /**
+   * @param files the data files, in the order they will be opened
+   * @param nbThreads the number of files that are decompressed at the same time, 0 to decompress
+   *     them on the calling thread while they are read
+   */
+  public ShardDecompressor(File[] files, int nbThreads) {
+    this.files = files;
+    this.nbThreads = Math.max(0, nbThreads);
+  }
+
+  /**
+   * @param file a data file
+   * @return true if the file is gzipped
+   */
+  public static boolean isCompressed(File file) {
+    return file.getName().endsWith(".gz");
+  }
+
+  /**
+   * Opens a data file on the calling thread, decompressing it if needed.
+   *
+   * @param file the data file
+   * @return the (decompressed) contents of the file
+   */
+  public static InputStream open(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    return isCompressed(file) ? new GZIPInputStream(in, 1 << 16) : in;
+  }
+
+  /**
+   * Opens a data file and starts decompressing the gzipped files that follow it. Without threads,
+   * the file is decompressed on the calling thread instead.
+   *
+   * @param index the index of the file
+   * @return the (decompressed) contents of the file
+   */
+  public InputStream open(int index) throws IOException {
+    if (nbThreads == 0) return open(files[index]);
+    if (!isCompressed(files[index])) return new FileInputStream(files[index]);
+
+    for (int i = index; i < files.length && i < index + nbThreads; i++) {
+      if (isCompressed(files[i]) && !started.containsKey(i)) start(i);
+    }
+    return started.remove(index);
+  }
+
+  /** Stops all workers and closes the files they opened. */
+  public void close() {
+    for (DecompressedStream stream : started.values()) stream.close();
+    started.clear();
+    if (pool != null) pool.shutdownNow();
+  }
+
+  private void start(int index) {
+    if (pool == null) {
+      pool =
+          Executors.newFixedThreadPool(
+              nbThreads,
+              runnable -> {
+                Thread thread = new Thread(runnable, "data-decompress");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    DecompressedStream stream = new DecompressedStream(files[index]);
+    stream.task = pool.submit(stream::decompress);
+    started.put(index, stream);
+  }
+
+  /** The contents of a gzipped file, decompressed chunk by chunk by a worker. */
+  private static class DecompressedStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+
+    private final File file;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(CHUNKS_AHEAD);
+    private volatile IOException failure; /* error of the worker, rethrown by read */
+    private Future<?> task;
+
+    private byte[] chunk = null; /* the chunk that is being read */
+    private int position = 0;
+
+    DecompressedStream(File file) {
+      this.file = file;
+    }
+
+    /** Runs on a worker: decompresses the file into chunks, an empty chunk marks the end. */
+    private void decompress() {
+      try {
+        try (InputStream in = open(file)) {
+          int n;
+          do {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            n = in.readNBytes(buffer, 0, CHUNK_SIZE);
+            if (n > 0) chunks.put(n == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, n));
+          } while (n == CHUNK_SIZE);
+        } catch (IOException e) {
+          failure = e;
+        }
+        chunks.put(END);
+      } catch (InterruptedException e) {
+        // closed by the reader
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!nextChunk()) return -1;
+      return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (!nextChunk()) return -1;
+      int n = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, n);
+      position += n;
+      return n;
+    }
+
+    /** @return false at the end of the file */
+    private boolean nextChunk() throws IOException {
+      if (chunk == END) return false;
+      if (chunk != null && position < chunk.length) return true;
+      try {
+        chunk = chunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted while decompressing " + file);
+      }
+      position = 0;
+      if (chunk == END) {
+        if (failure != null) throw failure;
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public void close() {
+      task.cancel(true);
+    }
+  }
+}
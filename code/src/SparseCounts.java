@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.util.Arrays;
+
+/**
+ * The class counts of one feature in a leaf, for a feature with many values of which a leaf only
+ * sees a few. Only the values that occur are stored, in an open addressing hash table with linear
+ * probing.
+ *
+ * <p>The counts are laid out as the dense counts of VfdtNode: the count of slot s and class k is
+ * at getCounts().get(2 * s + k). Empty slots have zero counts, so code that skips zero counts can work
+ * on the table directly.
+ */
+public class SparseCounts {
+
+  private static final int INITIAL_CAPACITY = 8; /* a power of two */
+  private static final int EMPTY = -1;
+
+  private int[] values; /* the value in every slot, EMPTY if the slot is free */
+  private CountArray counts; /* 2 per slot */
+  private int shift; /* 32 - log2(capacity), for Fibonacci hashing */
+  private int size = 0;
+
+  public SparseCounts() {
+    this.values = new int[INITIAL_CAPACITY];
+    Arrays.fill(values, EMPTY);
+    this.counts = new CountArray(2 * INITIAL_CAPACITY);
+    this.shift = 32 - Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+  }
+
+  /** @return a copy with the same counts */
+  public SparseCounts copy() {
+    SparseCounts copy = new SparseCounts();
+    copy.values = values.clone();
+    copy.counts = counts.copy();
+    copy.shift = shift;
+    copy.size = size;
+    return copy;
+  }
+
+  /**
+   * Counts an example.
+   *
+   * @param value the value of the feature, at least 0
+   * @param classValue the class of the example
+   */
+  public void add(int value, int classValue) {
+    add(value, classValue, 1);
+  }
+
+  /**
+   * Counts a number of examples with the same value and class.
+   *
+   * @param value the value of the feature, at least 0
+   * @param classValue the class of the examples
+   * @param count the number of examples
+   */
+  public void add(int value, int classValue, long count) {
+    int slot = slotOf(value);
+    if (values[slot] == EMPTY) {
+      if (4 * (size + 1) > 3 * values.length) {
+        grow();
+        slot = slotOf(value);
+      }
+      values[slot] = value;
+      size++;
+    }
+    if (count == 1) {
+      counts.increment(2 * slot + classValue);
+    } else {
+      counts.add(2 * slot + classValue, count);
+    }
+  }
+
+  /**
+   * @param value a value of the feature
+   * @param classValue a class
+   * @return the number of examples with the value and the class
+   */
+  public long get(int value, int classValue) {
+    int slot = slotOf(value);
+    return values[slot] == EMPTY ? 0 : counts.get(2 * slot + classValue);
+  }
+
+  /** @return the number of values that occurred */
+  public int size() {
+    return size;
+  }
+
+  /** @return the values that occurred, in increasing order */
+  public int[] values() {
+    int[] present = new int[size];
+    int i = 0;
+    for (int value : values) {
+      if (value != EMPTY) present[i++] = value;
+    }
+    Arrays.sort(present);
+    return present;
+  }
+
+  /** @return the counts of all slots, see the class comment */
+  public CountArray getCounts() {
+    return counts;
+  }
+
+  /** @return the number of slots */
+  public int capacity() {
+    return values.length;
+  }
+
+  /** @return the estimated size in bytes of the table */
+  public long getBytes() {
+    return 24 + 16 + 4L * values.length + counts.getBytes();
+  }
+
+  /** @return the estimated size in bytes of a new, empty table */
+  public static long initialBytes() {
+    return 24 + 16 + 4L * INITIAL_CAPACITY + CountArray.initialBytes(2 * INITIAL_CAPACITY);
+  }
+
+  /** @return the slot that holds the value, or the free slot where it goes */
+  private int slotOf(int value) {
+    int mask = values.length - 1;
+    int slot = (value * 0x9E3779B9) >>> shift;
+    while (values[slot] != EMPTY && values[slot] != value) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void grow() {
+    int[] oldValues = values;
+    CountArray oldCounts = counts;
+    values = new int[2 * oldValues.length];
+    Arrays.fill(values, EMPTY);
+    shift--;
+    counts = new CountArray(2 * values.length);
+    for (int s = 0; s < oldValues.length; s++) {
+      if (oldValues[s] != EMPTY) {
+        int slot = slotOf(oldValues[s]);
+        values[slot] = oldValues[s];
+        counts.add(2 * slot, oldCounts.get(2 * s));
+        counts.add(2 * slot + 1, oldCounts.get(2 * s + 1));
+      }
+    }
+  }
+}
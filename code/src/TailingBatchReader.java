@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Reads the data files of a directory, and keeps reading the files that are added to it later.
+ *
+ * <p>The files that are in the directory when reading starts are read in alphabetical order. Then
+ * the reader waits for new files and reads them in alphabetical order as they come in. A file is
+ * read as soon as its name matches the data files, so a new file must be complete when it gets its
+ * name: write it under another name (e.g. "shard.csv.tmp") and rename it when it is done.
+ *
+ * <p>The stream ends when the file END_MARKER appears in the directory and all data files are read,
+ * or when the reader is closed. Until then, read blocks while there are no new examples.
+ */
+public class TailingBatchReader<T> implements BatchReader<T> {
+
+  public static final String END_MARKER = "_DONE";
+
+  public static final long RESCAN_MILLIS = 1000; /* rescan even without events, e.g. on NFS */
+
+  private final File dataDir;
+  private final FilenameFilter dataFilter;
+  private final Function<File, BatchReader<T>> fileReaders;
+  private final ExampleBatch<T> staging; /* the examples of the current file */
+  private final WatchService watcher;
+
+  private final HashSet<String> seen = new HashSet<String>(); /* names of all files found */
+  private final TreeSet<File> pending = new TreeSet<File>(); /* files found but not yet read */
+  private BatchReader<T> current = null;
+  private boolean ended = false;
+
+  /**
+   * Starts watching the directory.
+   *
+   * @param dataDir the directory with the data files
+   * @param dataFilter accepts the names of the data files
+   * @param fileReaders creates a reader over a single file
+   * @param staging a batch to read the files into
+   */
+  public TailingBatchReader(
+      File dataDir,
+      FilenameFilter dataFilter,
+      Function<File, BatchReader<T>> fileReaders,
+      ExampleBatch<T> staging)
+      throws IOException {
+    this.dataDir = dataDir;
+    this.dataFilter = dataFilter;
+    this.fileReaders = fileReaders;
+    this.staging = staging;
+    this.watcher = FileSystems.getDefault().newWatchService();
+    // register before the first scan, so that no file can slip in between
+    dataDir
+        .toPath()
+        .register(
+            watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    scan();
+  }
+
+  @Override
+  public int read(ExampleBatch<T> batch, int max) {
+    int row = 0;
+    while (row < max) {
+      if (current == null && !nextFile()) break; // ended or closed
+
+      int n = current.read(staging, Math.min(max - row, staging.capacity()));
+      if (n == 0) {
+        current.close();
+        current = null;
+      }
+      for (int i = 0; i < n; i++) {
+        batch.copyRow(staging, i, row++);
+      }
+    }
+    batch.setSize(row);
+    return row;
+  }
+
+  /**
+   * Opens the next data file, waiting for it if needed.
+   *
+   * @return false if there are no files left and the stream has ended
+   */
+  private boolean nextFile() {
+    while (pending.isEmpty()) {
+      if (ended) return false;
+      // the marker can arrive together with the last files, so check for files once more
+      boolean endSeen = new File(dataDir, END_MARKER).exists();
+      scan();
+      if (endSeen && pending.isEmpty()) {
+        ended = true;
+        return false;
+      }
+      if (pending.isEmpty() && !await()) return false;
+    }
+    current = fileReaders.apply(pending.pollFirst());
+    return true;
+  }
+
+  /** Adds the data files that were not seen before to the pending files. */
+  private void scan() {
+    File[] files = dataDir.listFiles(dataFilter);
+    if (files == null) return;
+    for (File file : files) {
+      if (seen.add(file.getName())) pending.add(file);
+    }
+  }
+
+  /**
+   * Waits until something happens in the directory, or until it is time to rescan.
+   *
+   * @return false if the reader was closed while waiting
+   */
+  private boolean await() {
+    try {
+      WatchKey key = watcher.poll(RESCAN_MILLIS, TimeUnit.MILLISECONDS);
+      if (key != null) {
+        key.pollEvents(); // the directory is rescanned anyway
+        key.reset();
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ClosedWatchServiceException e) {
+      return false;
+    }
+  }
+
+  /** Stops watching the directory, a read that is waiting for new files returns. */
+  @Override
+  public void close() {
+    if (current != null) {
+      current.close();
+      current = null;
+    }
+    try {
+      watcher.close();
+    } catch (IOException e) {
+
+    }
+  }
+}
@@ -0,0 +1,452 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compiles a tree that no longer changes into a generated class, so that the JIT sees the tree as
+ * straight-line code instead of data.
+ *
+ * <p>The generated class implements Predictor. Its predict method is one nested tableswitch on
+ * example[splitFeature] per node, in the order of the tree. A node that predicts with its class
+ * totals (an inactive node) returns its probability as a constant, a node that predicts with its
+ * counts calls a PredictionTable of its counts that belongs to the compiled tree. The default of a
+ * switch throws an ArrayIndexOutOfBoundsException, as the interpreted tree does for a value that
+ * has no child. The class is loaded as a hidden class, so it is unloaded together with the Vfdt that
+ * uses it.
+ *
+ * <p>HotSpot does not JIT compile a method with more than 8000 bytes of code (HugeMethodLimit), it
+ * would then run slower than the interpreted tree. Larger trees are not compiled, they are then
+ * predicted with the interpreted tree.
+ */
+public class TreeCompiler {
+
+  /** Predicts with a compiled tree. */
+  public interface Predictor {
+    double predict(int[] example);
+  }
+
+  private static final String CLASS_NAME = "CompiledVfdtTree";
+  private static final int MAX_CODE_LENGTH = 8000;
+  private static final int MAX_CONSTANTS = 65535;
+
+  /* opcodes */
+  private static final int ICONST_0 = 0x03;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC_W = 0x13;
+  private static final int LDC2_W = 0x14;
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ALOAD_1 = 0x2b;
+  private static final int IALOAD = 0x2e;
+  private static final int AALOAD = 0x32;
+  private static final int DUP = 0x59;
+  private static final int TABLESWITCH = 0xaa;
+  private static final int DRETURN = 0xaf;
+  private static final int RETURN = 0xb1;
+  private static final int GETFIELD = 0xb4;
+  private static final int PUTFIELD = 0xb5;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int NEW = 0xbb;
+  private static final int ATHROW = 0xbf;
+
+  /** Thrown while generating code when the tree does not fit in a method. */
+  private static class TooLargeException extends Exception {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private final int minExamples;
+
+  /* the constant pool, every entry written as its bytes */
+  private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+  private final DataOutputStream constantsOut = new DataOutputStream(constants);
+  private int nbConstants = 1; /* entry 0 is not used */
+  private final HashMap<String, Integer> constantIndices = new HashMap<String, Integer>();
+
+  /* the code of predict */
+  private byte[] code = new byte[1024];
+  private int codeLength = 0;
+  private final ArrayList<Integer> branchTargets = new ArrayList<Integer>();
+
+  /* the nodes that predict with their counts, their table is tables[i] in the generated class */
+  private final ArrayList<PredictionTable> tables = new ArrayList<PredictionTable>();
+  private final HashMap<VfdtNode, Integer> tableIndices = new HashMap<VfdtNode, Integer>();
+
+  private TreeCompiler(int minExamples) {
+    this.minExamples = minExamples;
+  }
+
+  /**
+   * Compiles a tree. The predictions are the same as those of Vfdt.makePrediction: an example is
+   * sorted to the deepest node on its path whose examples are more than minExamples, which
+   * predicts. A value that has no child throws an ArrayIndexOutOfBoundsException.
+   *
+   * @param root the root of the tree, the tree must not change anymore
+   * @param minExamples sorting stops at a node whose child has at most this many examples
+   * @return the compiled tree, null if it is too large to compile
+   */
+  public static Predictor compile(VfdtNode root, int minExamples) {
+    try {
+      return new TreeCompiler(minExamples).compile(root);
+    } catch (TooLargeException e) {
+      return null;
+    }
+  }
+
+  private Predictor compile(VfdtNode root) throws TooLargeException {
+    emitNode(root);
+    byte[] classBytes;
+    try {
+      classBytes = classFile();
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // writes to memory
+    }
+    try {
+      Class<?> compiled = MethodHandles.lookup().defineHiddenClass(classBytes, true).lookupClass();
+      return (Predictor)
+          compiled
+              .getDeclaredConstructor(PredictionTable[].class)
+              .newInstance((Object) tables.toArray(new PredictionTable[tables.size()]));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("could not load the compiled tree", e);
+    }
+  }
+
+  /** Emits the code that predicts the examples that reach the node. */
+  private void emitNode(VfdtNode node) throws TooLargeException {
+    VfdtNode[] children = node.getChildren();
+    if (children == null) {
+      emitPrediction(node);
+      return;
+    }
+
+    // switch on the value of the split feature
+    emit(ALOAD_1);
+    emitInt(node.getSplitFeature());
+    emit(IALOAD);
+    int switchStart = codeLength;
+    emit(TABLESWITCH);
+    while (codeLength % 4 != 0) emit(0);
+    int defaultOffset = codeLength;
+    emitInt32(0);
+    emitInt32(0);
+    emitInt32(children.length - 1);
+    int caseOffsets = codeLength;
+    for (int v = 0; v < children.length; v++) emitInt32(0);
+
+    // a value without a child throws new ArrayIndexOutOfBoundsException(value)
+    int unknownValue = target();
+    emit(NEW);
+    emitShort(classref("java/lang/ArrayIndexOutOfBoundsException"));
+    emit(DUP);
+    emit(ALOAD_1);
+    emitInt(node.getSplitFeature());
+    emit(IALOAD);
+    emit(INVOKESPECIAL);
+    emitShort(methodref("java/lang/ArrayIndexOutOfBoundsException", "<init>", "(I)V"));
+    emit(ATHROW);
+    patchInt32(defaultOffset, unknownValue - switchStart);
+
+    // the node itself predicts the values whose child has too few examples
+    int ownPrediction = target();
+    emitPrediction(node);
+    for (int v = 0; v < children.length; v++) {
+      int caseTarget = ownPrediction;
+      if (children[v].getNbExamples() > minExamples) {
+        caseTarget = target();
+        emitNode(children[v]);
+      }
+      patchInt32(caseOffsets + 4 * v, caseTarget - switchStart);
+    }
+  }
+
+  /** Emits the code that returns the prediction of the node for the example. */
+  private void emitPrediction(VfdtNode node) throws TooLargeException {
+    if (!node.isActive()) {
+      // only the class totals are left, see Vfdt.makePrediction
+      int total = node.getClassSummary(0) + node.getClassSummary(1);
+      emitDouble(total == 0 ? 0.5 : (double) node.getClassSummary(1) / total);
+      emit(DRETURN);
+      return;
+    }
+    Integer index = tableIndices.get(node);
+    if (index == null) {
+      // a table of its own, internal nodes do not keep one
+      PredictionTable table = PredictionTable.of(node);
+      if (table == null) throw new TooLargeException(); // the counts do not fit in a table
+      index = tables.size();
+      tables.add(table);
+      tableIndices.put(node, index);
+    }
+    emit(ALOAD_0);
+    emit(GETFIELD);
+    emitShort(fieldref("tables", "[LPredictionTable;"));
+    emitInt(index);
+    emit(AALOAD);
+    emit(ALOAD_1);
+    emit(INVOKEVIRTUAL);
+    emitShort(methodref("PredictionTable", "predict", "([I)D"));
+    emit(DRETURN);
+  }
+
+  /** @return the current offset, after recording it as a branch target */
+  private int target() {
+    branchTargets.add(codeLength);
+    return codeLength;
+  }
+
+  private void emitInt(int value) throws TooLargeException {
+    if (value >= 0 && value <= 5) {
+      emit(ICONST_0 + value);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      emit(BIPUSH);
+      emit(value);
+    } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      emit(SIPUSH);
+      emitShort(value);
+    } else {
+      emit(LDC_W);
+      emitShort(constant("I" + value, 3, value));
+    }
+  }
+
+  private void emitDouble(double value) throws TooLargeException {
+    emit(LDC2_W);
+    long bits = Double.doubleToRawLongBits(value);
+    emitShort(constant("D" + bits, 6, bits));
+  }
+
+  private void emit(int b) throws TooLargeException {
+    if (codeLength == MAX_CODE_LENGTH) throw new TooLargeException();
+    if (codeLength == code.length) code = java.util.Arrays.copyOf(code, 2 * code.length);
+    code[codeLength++] = (byte) b;
+  }
+
+  private void emitShort(int value) throws TooLargeException {
+    emit(value >>> 8);
+    emit(value);
+  }
+
+  private void emitInt32(int value) throws TooLargeException {
+    emitShort(value >>> 16);
+    emitShort(value);
+  }
+
+  private void patchInt32(int offset, int value) {
+    code[offset] = (byte) (value >>> 24);
+    code[offset + 1] = (byte) (value >>> 16);
+    code[offset + 2] = (byte) (value >>> 8);
+    code[offset + 3] = (byte) value;
+  }
+
+  /* the constant pool, entries are shared by their key */
+
+  private int utf8(String value) throws TooLargeException {
+    Integer index = constantIndices.get("U" + value);
+    if (index != null) return index;
+    try {
+      constantsOut.writeByte(1);
+      constantsOut.writeUTF(value);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return newConstant("U" + value, 1);
+  }
+
+  private int classref(String name) throws TooLargeException {
+    Integer index = constantIndices.get("C" + name);
+    if (index != null) return index;
+    int nameIndex = utf8(name);
+    write(7, nameIndex);
+    return newConstant("C" + name, 1);
+  }
+
+  private int nameAndType(String name, String descriptor) throws TooLargeException {
+    String key = "N" + name + ":" + descriptor;
+    Integer index = constantIndices.get(key);
+    if (index != null) return index;
+    int nameIndex = utf8(name);
+    int descriptorIndex = utf8(descriptor);
+    write(12, nameIndex, descriptorIndex);
+    return newConstant(key, 1);
+  }
+
+  private int methodref(String owner, String name, String descriptor) throws TooLargeException {
+    String key = "M" + owner + "." + name + ":" + descriptor;
+    Integer index = constantIndices.get(key);
+    if (index != null) return index;
+    int ownerIndex = classref(owner);
+    int nameAndTypeIndex = nameAndType(name, descriptor);
+    write(10, ownerIndex, nameAndTypeIndex);
+    return newConstant(key, 1);
+  }
+
+  private int fieldref(String name, String descriptor) throws TooLargeException {
+    String key = "F" + name + ":" + descriptor;
+    Integer index = constantIndices.get(key);
+    if (index != null) return index;
+    int ownerIndex = classref(CLASS_NAME);
+    int nameAndTypeIndex = nameAndType(name, descriptor);
+    write(9, ownerIndex, nameAndTypeIndex);
+    return newConstant(key, 1);
+  }
+
+  /** Adds an int (tag 3) or double (tag 6) constant. */
+  private int constant(String key, int tag, long value) throws TooLargeException {
+    Integer index = constantIndices.get(key);
+    if (index != null) return index;
+    try {
+      constantsOut.writeByte(tag);
+      if (tag == 6) {
+        constantsOut.writeLong(value);
+      } else {
+        constantsOut.writeInt((int) value);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return newConstant(key, tag == 6 ? 2 : 1); // a double takes two entries
+  }
+
+  private void write(int tag, int... indices) {
+    try {
+      constantsOut.writeByte(tag);
+      for (int index : indices) constantsOut.writeShort(index);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private int newConstant(String key, int size) throws TooLargeException {
+    int index = nbConstants;
+    nbConstants += size;
+    if (nbConstants > MAX_CONSTANTS) throw new TooLargeException();
+    constantIndices.put(key, index);
+    return index;
+  }
+
+  /** @return the class file, after the code of predict is complete */
+  private byte[] classFile() throws IOException, TooLargeException {
+    int thisClass = classref(CLASS_NAME);
+    int superClass = classref("java/lang/Object");
+    int predictor = classref("TreeCompiler$Predictor");
+    int objectInit = methodref("java/lang/Object", "<init>", "()V");
+    int tablesField = fieldref("tables", "[LPredictionTable;");
+    int tablesName = utf8("tables");
+    int tablesDescriptor = utf8("[LPredictionTable;");
+    int initName = utf8("<init>");
+    int initDescriptor = utf8("([LPredictionTable;)V");
+    int predictName = utf8("predict");
+    int predictDescriptor = utf8("([I)D");
+    int codeName = utf8("Code");
+    int stackMapName = utf8("StackMapTable");
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0);
+    out.writeShort(61); // Java 17
+    out.writeShort(nbConstants);
+    constantsOut.flush();
+    constants.writeTo(out);
+    out.writeShort(0x0031); // public final super
+    out.writeShort(thisClass);
+    out.writeShort(superClass);
+    out.writeShort(1);
+    out.writeShort(predictor);
+
+    out.writeShort(1); // private final PredictionTable[] tables
+    out.writeShort(0x0012);
+    out.writeShort(tablesName);
+    out.writeShort(tablesDescriptor);
+    out.writeShort(0);
+
+    out.writeShort(2);
+
+    // public <init>(PredictionTable[] tables) { super(); this.tables = tables; }
+    byte[] init = {
+      (byte) ALOAD_0,
+      (byte) INVOKESPECIAL,
+      (byte) (objectInit >>> 8),
+      (byte) objectInit,
+      (byte) ALOAD_0,
+      (byte) ALOAD_1,
+      (byte) PUTFIELD,
+      (byte) (tablesField >>> 8),
+      (byte) tablesField,
+      (byte) RETURN
+    };
+    out.writeShort(0x0001);
+    out.writeShort(initName);
+    out.writeShort(initDescriptor);
+    out.writeShort(1);
+    writeCode(out, codeName, 2, 2, init, init.length, null, 0);
+
+    // public double predict(int[] example), every branch target has the locals of the start
+    byte[] frames = stackMapFrames();
+    out.writeShort(0x0001);
+    out.writeShort(predictName);
+    out.writeShort(predictDescriptor);
+    out.writeShort(1);
+    writeCode(out, codeName, 4, 2, code, codeLength, frames, stackMapName);
+
+    out.writeShort(0); // no class attributes
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void writeCode(
+      DataOutputStream out,
+      int codeName,
+      int maxStack,
+      int maxLocals,
+      byte[] code,
+      int codeLength,
+      byte[] frames,
+      int stackMapName)
+      throws IOException {
+    int attributesLength = frames == null ? 0 : 6 + frames.length;
+    out.writeShort(codeName);
+    out.writeInt(2 + 2 + 4 + codeLength + 2 + 2 + attributesLength);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(codeLength);
+    out.write(code, 0, codeLength);
+    out.writeShort(0); // no exception handlers
+    if (frames == null) {
+      out.writeShort(0);
+    } else {
+      out.writeShort(1);
+      out.writeShort(stackMapName);
+      out.writeInt(frames.length);
+      out.write(frames);
+    }
+  }
+
+  /** @return the StackMapTable: a same frame for every branch target, in increasing order */
+  private byte[] stackMapFrames() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeShort(branchTargets.size()); // the targets are recorded in increasing order
+    int previous = -1;
+    for (int target : branchTargets) {
+      int delta = target - previous - 1;
+      if (delta < 64) {
+        out.writeByte(delta); // same_frame
+      } else {
+        out.writeByte(251); // same_frame_extended
+        out.writeShort(delta);
+      }
+      previous = target;
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) DTAI - KU Leuven – All rights reserved. Proprietary, do not copy or distribute
+ * without permission. Written by Pieter Robberechts, 2021
+ */
+
+/**
+ * An immutable view of a Vfdt for prediction, so that predictions can run on other threads while
+ * the tree keeps learning. Any number of threads can call makePrediction without locking.
+ *
+ * <p>A snapshot is taken by the thread that trains the tree. Every VfdtNode remembers the snapshot
+ * node that was last taken of it. A node that has not changed since is shared with the previous
+ * snapshot, together with its subtree if nothing in it changed either, so only the paths to the
+ * leaves that counted examples are copied.
+ */
+public class TreeSnapshot {
+
+  /** A node of a snapshot, it does not change once it has been taken. */
+  public static class Node {
+    private final int version; /* VfdtNode.getVersion() when the counts were copied */
+    private final int nbExamples;
+    private final int splitFeature;
+    private final Node[] children; /* null for a leaf */
+
+    /* the prediction: a constant for an inactive node, else the table or, if the counts do not
+     * fit in a table, a copy of the counts */
+    private final double constant;
+    private final PredictionTable table;
+    private final VfdtNode counts;
+
+    private Node(VfdtNode node) {
+      this.version = node.getVersion();
+      this.nbExamples = node.getNbExamples();
+      this.splitFeature = -1;
+      this.children = null;
+      if (!node.isActive()) {
+        // only the class totals are left, see Vfdt.makePrediction
+        int total = node.getClassSummary(0) + node.getClassSummary(1);
+        this.constant = total == 0 ? 0.5 : (double) node.getClassSummary(1) / total;
+        this.table = null;
+        this.counts = null;
+      } else {
+        VfdtNode copy = node.snapshot();
+        this.constant = 0;
+        this.table = PredictionTable.of(copy);
+        this.counts = table == null ? copy : null;
+      }
+    }
+
+    /** The counts of another node, with children. */
+    private Node(Node counts, int splitFeature, Node[] children) {
+      this.version = counts.version;
+      this.nbExamples = counts.nbExamples;
+      this.splitFeature = splitFeature;
+      this.children = children;
+      this.constant = counts.constant;
+      this.table = counts.table;
+      this.counts = counts.counts;
+    }
+
+    private double predict(int[] example) {
+      if (table != null) return table.predict(example);
+      if (counts != null) return Vfdt.countsPrediction(counts, example);
+      return constant;
+    }
+  }
+
+  private final Node root;
+  private final int minExamples;
+  private final int nbExamplesProcessed;
+
+  private TreeSnapshot(Node root, int minExamples, int nbExamplesProcessed) {
+    this.root = root;
+    this.minExamples = minExamples;
+    this.nbExamplesProcessed = nbExamplesProcessed;
+  }
+
+  /**
+   * Takes a snapshot of a tree. The tree must not be changed meanwhile, except by threads that
+   * lock the leaf they change.
+   *
+   * @param root the root of the tree
+   * @param minExamples sorting stops at a node whose child has at most this many examples
+   * @param nbExamplesProcessed the number of examples the tree has learned from
+   * @param lock whether to lock each node while its counts are copied
+   * @return the snapshot
+   */
+  public static TreeSnapshot of(
+      VfdtNode root, int minExamples, int nbExamplesProcessed, boolean lock) {
+    return new TreeSnapshot(take(root, lock), minExamples, nbExamplesProcessed);
+  }
+
+  /** @return the snapshot node of the node, the one of the last snapshot if nothing changed */
+  private static Node take(VfdtNode node, boolean lock) {
+    Node previous = node.getPublished();
+    VfdtNode[] children = node.getChildren();
+
+    Node counts = previous;
+    if (previous == null || previous.version != node.getVersion()) {
+      if (lock) {
+        synchronized (node) {
+          counts = new Node(node);
+        }
+      } else {
+        counts = new Node(node);
+      }
+    }
+
+    Node taken = counts;
+    if (children != null) {
+      // share the children array too if no child changed
+      Node[] previousChildren = counts == previous ? previous.children : null;
+      Node[] takenChildren = previousChildren;
+      for (int v = 0; v < children.length; v++) {
+        Node child = take(children[v], lock);
+        if (takenChildren == previousChildren
+            && (previousChildren == null || previousChildren[v] != child)) {
+          takenChildren = new Node[children.length];
+          for (int i = 0; i < v; i++) takenChildren[i] = previousChildren[i];
+        }
+        if (takenChildren != previousChildren) takenChildren[v] = child;
+      }
+      taken =
+          takenChildren == previousChildren
+              ? previous
+              : new Node(counts, node.getSplitFeature(), takenChildren);
+    }
+    node.setPublished(taken);
+    return taken;
+  }
+
+  /**
+   * Calculates the probability that an example belongs to class "1", as Vfdt.makePrediction did
+   * when the snapshot was taken.
+   *
+   * @param example the values of the features
+   * @return the probability that the example belongs to class "1"
+   * @throws ArrayIndexOutOfBoundsException if the example has a value without a child at a node on
+   *     its path
+   */
+  public double makePrediction(int[] example) {
+    Node node = root;
+    while (node.children != null) {
+      Node child = node.children[example[node.splitFeature]];
+      if (child.nbExamples <= minExamples) break;
+      node = child;
+    }
+    return node.predict(example);
+  }
+
+  /** @return the number of examples the tree had learned from when the snapshot was taken */
+  public int getNbExamplesProcessed() {
+    return nbExamplesProcessed;
+  }
+}
@@ -6,6 +6,12 @@ import java.io.*;
 import java.lang.reflect.Array;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 
 
 /** This class is a stub for VFDT. */
@@ -18,7 +24,51 @@ public class Vfdt extends IncrementalLearner<Integer> {
 
 
   private VfdtNode root;
-  private ArrayList<VfdtNode> leaves;
+  private LinkedHashSet<VfdtNode> leaves; /* in the order they were created */
+
+  /* leaves with at least this many possible split features are evaluated on the ForkJoin pool */
+  private int parallelSplitThreshold = DEFAULT_PARALLEL_SPLIT_THRESHOLD;
+
+  private long memoryBudget = 0; /* bytes, 0 for no limit */
+  private long memoryUsed; /* estimated bytes of all nodes and of the counts of active leaves */
+  private int lastLeafReview = 0; /* nbExamplesProcessed at the last review of inactive leaves */
+
+  private static final long NODE_BYTES = 128; /* estimated size of a node without its counts */
+  private static final double MEMORY_LOW_WATER = 0.9; /* fraction of the budget to free down to */
+  private static final int LEAF_REVIEW_PERIOD = 10000; /* examples between reactivation reviews */
+
+  private boolean poorAttributePruning = true;
+
+  /*
+   * the tree laid out for prediction, null until the first prediction. splitNodes are the nodes
+   * that were split since it was laid out or extended, nbSplits counts all splits.
+   */
+  private CompiledTree compiledTree = null;
+  private final ArrayList<VfdtNode> splitNodes = new ArrayList<VfdtNode>(); /* guarded by leaves */
+  private volatile int nbSplits = 0;
+  private int compiledSplits = 0; /* nbSplits when compiledTree was last extended */
+  private CompiledTree blockTree = null; /* used by all threads of makePredictions */
+  private TreeCompiler.Predictor frozenTree = null; /* set by freeze(), dropped by any update */
+
+  private volatile TreeSnapshot snapshot = null; /* the last published snapshot, for other threads */
+  private int snapshotPeriod = 0; /* examples between automatic snapshots, 0 for none */
+  private int lastSnapshot = 0; /* nbExamplesProcessed at the last published snapshot */
+
+  /*
+   * a child is only used for prediction if it has more examples than this, otherwise its parent
+   * predicts. A split only happens after nmin examples, so a parent always has enough.
+   */
+  private static final int MIN_PREDICTION_EXAMPLES = 50;
+
+  private int trainingThreads = 1;
+  private ExecutorService trainingPool = null; /* created for the first concurrent update */
+
+  private boolean asyncSplits = false;
+  private ExecutorService splitEvaluator = null; /* one thread, created by setAsyncSplits */
+  private volatile Throwable splitFailure = null; /* thrown by the next update */
+
+  public static final int DEFAULT_PARALLEL_SPLIT_THRESHOLD = 256;
+  private static final int SPLIT_EVAL_CHUNK = 64; /* features per ForkJoin task */
 
 
   /**
@@ -44,9 +94,10 @@ public class Vfdt extends IncrementalLearner<Integer> {
     int[] possibleFeatures = new int[nbFeatureValues.length];
     for (int i = 0; i < nbFeatureValues.length; i++) possibleFeatures[i] = i;
     this.root = new VfdtNode(nbFeatureValues, possibleFeatures);
+    this.memoryUsed = NODE_BYTES + root.getCountBytes();
 
     // first there is only one leaf which is the root
-    this.leaves = new ArrayList<VfdtNode>();
+    this.leaves = new LinkedHashSet<VfdtNode>();
     this.leaves.add(root);
   }
 
@@ -60,70 +111,561 @@ public class Vfdt extends IncrementalLearner<Integer> {
   @Override
   public void update(Example<Integer> example) {
     super.update(example);
-    VfdtNode leafNode = findLeafNode(this.root, example);
-    leafNode.addExample(example);
-
-    ArrayList<VfdtNode> splittedLeaves = new ArrayList<VfdtNode>();
-    ArrayList<VfdtNode[]> newLeaves = new ArrayList<VfdtNode[]>();
-
-    for (VfdtNode leaf : leaves) {
-      // first check if leaf node has enough instances
-      if (leaf.getNbExamples() >= nmin) {
-        HashMap<Integer, Double> igList = new HashMap<Integer, Double>();
+    frozenTree = null;
+    if (asyncSplits) {
+      checkSplitFailure();
+      int[] values = new int[example.attributeValues.length];
+      for (int i = 0; i < values.length; i++) values[i] = example.attributeValues[i];
+      addConcurrently(values, example.classValue);
+    } else {
+      VfdtNode leafNode = findLeafNode(this.root, example);
+      leafNode.addExample(example);
+      attemptSplit(leafNode);
+    }
+    checkMemory();
+    checkSnapshot();
+  }
 
-        for (int splitFeature : leaf.getPossibleSplitFeatures()) {
-          double ig = leaf.splitEval(splitFeature);
-          igList.put(splitFeature, ig);
-        }
-        double highestIg = 0;
-        int bestSplitFeature = -1;
+  /**
+   * This method will update the parameters of your model using all examples of the batch, without
+   * boxing them.
+   *
+   * @param batch are the training examples
+   */
+  @Override
+  public void update(ExampleBatch<Integer> batch) {
+    IntExampleBatch intBatch = (IntExampleBatch) batch;
+    frozenTree = null;
+    if (asyncSplits) checkSplitFailure();
+    if (trainingThreads > 1) {
+      updateConcurrently(intBatch);
+      return;
+    }
+    for (int row = 0; row < intBatch.size(); row++) {
+      nbExamplesProcessed++;
+      if (asyncSplits) {
+        addConcurrently(intBatch.attributeValues[row], intBatch.classValues[row]);
+      } else {
+        VfdtNode leafNode = root.sortExample(intBatch.attributeValues[row]);
+        leafNode.addExample(intBatch.attributeValues[row], intBatch.classValues[row]);
+        attemptSplit(leafNode);
+      }
+      checkMemory();
+      checkSnapshot();
+    }
+  }
 
-        double secondHighestIg = 0;
-        int secondBestSplitFeature = -1;
+  /**
+   * Trains with several threads at the same time. Every batch is divided over the threads, which
+   * sort their examples through the tree without locking and only lock the leaf that they update.
+   * The examples of a batch are then no longer added in order, so the tree can differ from
+   * sequential training. The memory budget is enforced after every batch.
+   *
+   * @param trainingThreads the number of threads, 1 to train on the calling thread
+   */
+  public void setTrainingThreads(int trainingThreads) {
+    this.trainingThreads = trainingThreads;
+  }
 
-        for (int splitFeature : igList.keySet()) {
-          double currIg = igList.get(splitFeature);
+  /**
+   * Divides the rows of the batch over the training threads and waits until all are added.
+   */
+  private void updateConcurrently(IntExampleBatch batch) {
+    if (trainingPool == null) {
+      trainingPool =
+          Executors.newFixedThreadPool(
+              trainingThreads,
+              runnable -> {
+                Thread thread = new Thread(runnable, "vfdt-train");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
 
-          if (currIg > highestIg) {
-            secondHighestIg = highestIg;
-            secondBestSplitFeature = bestSplitFeature;
+    int size = batch.size();
+    ArrayList<Future<?>> parts = new ArrayList<Future<?>>(trainingThreads);
+    for (int i = 0; i < trainingThreads; i++) {
+      int from = (int) ((long) size * i / trainingThreads);
+      int to = (int) ((long) size * (i + 1) / trainingThreads);
+      parts.add(
+          trainingPool.submit(
+              () -> {
+                for (int row = from; row < to; row++) {
+                  addConcurrently(batch.attributeValues[row], batch.classValues[row]);
+                }
+              }));
+    }
+    // wait for every part, also when interrupted: the bookkeeping below must not run while a
+    // part is still adding examples, and a part is a bounded amount of work
+    boolean interrupted = false;
+    Throwable failure = null;
+    for (Future<?> part : parts) {
+      while (true) {
+        try {
+          part.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (failure == null) failure = e.getCause();
+          break;
+        }
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+    if (failure instanceof Error) throw (Error) failure;
+    if (failure != null) throw new IllegalStateException(failure);
+    nbExamplesProcessed += size;
+    checkMemory();
+    checkSnapshot();
+  }
 
-            highestIg = currIg;
-            bestSplitFeature = splitFeature;
+  /**
+   * Adds an example while other threads may be adding examples too. The leaf is locked while its
+   * counts are updated and while a split is attempted. A thread that was waiting for a leaf that
+   * has been split in the meantime continues to the child, so no example is counted in a leaf that
+   * has already been split. With asyncSplits, the split is only queued, see setAsyncSplits.
+   */
+  private void addConcurrently(int[] attributeValues, int classValue) {
+    VfdtNode leaf = root.sortExample(attributeValues);
+    while (true) {
+      synchronized (leaf) {
+        if (leaf.getChildren() == null) {
+          leaf.addExample(attributeValues, classValue);
+          if (asyncSplits) {
+            queueSplit(leaf);
           } else {
-            if (currIg > secondHighestIg) {
-              secondHighestIg = currIg;
-              secondBestSplitFeature = splitFeature;
-            }
+            attemptSplit(leaf);
           }
+          return;
         }
-        if (bestSplitFeature != -1 && secondBestSplitFeature != -1) {
-          double deltaG = highestIg - secondHighestIg;
-
-          double root = (1 * Math.log(2 / delta)) / (2 * leaf.getNbExamples());
-          double hoeffding = Math.sqrt(root);
-          if (deltaG > hoeffding || deltaG < tau) {
-            VfdtNode[] newLeavesArr = leaf.split(bestSplitFeature, nbFeatureValues);
-            newLeaves.add(newLeavesArr);
-            splittedLeaves.add(leaf);
+      }
+      leaf = leaf.sortExample(attributeValues);
+    }
+  }
+
+  /**
+   * Splits the leaf if the Hoeffding bound (or the tie breaking) allows it. Only the leaf that
+   * received the example can change, and it is only evaluated once every nmin examples, so the cost
+   * does not depend on the size of the tree. A leaf that the Hoeffding bound does not split at one
+   * evaluation can therefore split up to nmin - 1 examples later than with an evaluation after every
+   * example, and a leaf read from a model waits nmin new examples before its first evaluation.
+   */
+  private void attemptSplit(VfdtNode leaf) {
+    // first check if leaf node has seen enough new instances since the last attempt
+    if (!leaf.isActive() || leaf.getNbExamplesSinceSplitAttempt() < nmin) return;
+    leaf.resetSplitAttempt();
+    addCountGrowth(leaf.takeCountGrowth());
+
+    int splitFeature = chooseSplit(leaf, leaf);
+    if (splitFeature >= 0) installSplit(leaf, leaf.split(splitFeature, nbFeatureValues));
+  }
+
+  /**
+   * Queues the leaf for the split evaluator instead of attempting a split on the calling thread.
+   * The caller holds the lock of the leaf.
+   */
+  private void queueSplit(VfdtNode leaf) {
+    if (!leaf.isActive() || leaf.getNbExamplesSinceSplitAttempt() < nmin) return;
+    if (!leaf.queueSplitAttempt()) return; // still waiting for the previous attempt
+    splitEvaluator.execute(
+        () -> {
+          try {
+            attemptQueuedSplit(leaf);
+          } catch (RuntimeException | Error e) {
+            splitFailure = e;
           }
+        });
+  }
+
+  /**
+   * Attempts a split on the split evaluator. The counts are copied under the lock of the leaf, the
+   * gains are computed on the copy while the leaf goes on counting, and the children are created
+   * under the lock again, so the leaf only stays locked for the copy and the split.
+   */
+  private void attemptQueuedSplit(VfdtNode leaf) {
+    VfdtNode snapshot;
+    long growth;
+    synchronized (leaf) {
+      if (leaf.getChildren() != null) return;
+      if (!leaf.isActive()) {
+        // deactivated while queued, it can be queued again once it is reactivated
+        leaf.resetSplitAttempt();
+        return;
+      }
+      leaf.resetSplitAttempt();
+      growth = leaf.takeCountGrowth();
+      snapshot = leaf.snapshot();
+    }
+    addCountGrowth(growth);
+
+    int splitFeature = chooseSplit(leaf, snapshot);
+    if (splitFeature < 0) return;
+    VfdtNode[] newLeaves;
+    synchronized (leaf) {
+      if (leaf.getChildren() != null || !leaf.isActive()) return;
+      newLeaves = leaf.split(splitFeature, nbFeatureValues);
+    }
+    installSplit(leaf, newLeaves);
+  }
+
+  /**
+   * Evaluates the split features of a leaf and removes the poor ones from it.
+   *
+   * @param leaf the leaf
+   * @param counts the leaf itself, or a snapshot of its counts
+   * @return the feature to split on, -1 if the leaf should not split yet
+   */
+  private int chooseSplit(VfdtNode leaf, VfdtNode counts) {
+    // the entropy before splitting is the same for every feature
+    double priorEntropy = counts.priorEntropy();
+    int[] features = counts.getPossibleSplitFeatures();
+    double[] gains = new double[features.length];
+    TopGains top;
+    if (features.length < parallelSplitThreshold) {
+      top = new TopGains();
+      for (int i = 0; i < features.length; i++) {
+        gains[i] = counts.splitEval(features[i], priorEntropy);
+        top.offer(features[i], gains[i]);
+      }
+    } else {
+      top =
+          ForkJoinPool.commonPool()
+              .invoke(new SplitEvalTask(counts, features, gains, 0, features.length, priorEntropy));
+    }
+    double highestIg = top.bestGain;
+    int bestSplitFeature = top.bestFeature;
+    double secondHighestIg = top.secondGain;
+    int secondBestSplitFeature = top.secondFeature;
+
+    if (bestSplitFeature != -1 && secondBestSplitFeature != -1) {
+      double deltaG = highestIg - secondHighestIg;
+
+      // a reactivated leaf only has counts for the examples since its reactivation
+      int n = Math.min(counts.getNbExamples(), counts.getNbCountedExamples());
+      double root = (1 * Math.log(2 / delta)) / (2 * n);
+      double hoeffding = Math.sqrt(root);
+      if (deltaG > hoeffding || deltaG < tau) return bestSplitFeature;
+      if (poorAttributePruning) removePoorFeatures(leaf, features, gains, highestIg - hoeffding);
+    }
+    return -1;
+  }
+
+  /** Replaces the leaf by the new leaves that were created by splitting it. */
+  private void installSplit(VfdtNode leaf, VfdtNode[] newLeaves) {
+    synchronized (leaves) {
+      leaves.remove(leaf);
+      leaves.addAll(Arrays.asList(newLeaves));
+      splitNodes.add(leaf);
+      nbSplits++;
+      memoryUsed += newLeaves.length * (NODE_BYTES + newLeaves[0].getCountBytes());
+      memoryUsed += leaf.takeCountGrowth(); // frees the prediction table of the leaf
+      if (memoryBudget > 0 && leaf.isActive()) {
+        // under a budget, internal nodes predict with their class totals
+        memoryUsed -= leaf.getCountBytes();
+        leaf.deactivate();
+      }
+    }
+  }
+
+  /** Adds the growth of the counts of a leaf to the memory used. */
+  private void addCountGrowth(long growth) {
+    if (growth != 0) {
+      synchronized (leaves) {
+        memoryUsed += growth;
+      }
+    }
+  }
+
+  /**
+   * Moves split attempts to a background thread. An update then only sorts the example to its leaf
+   * and counts it. Every nmin examples the leaf is queued for the split evaluator, which computes
+   * the gains on a copy of the counts and installs the children when the leaf splits. Because a
+   * split is decided a little later, the tree can differ from training without it.
+   *
+   * @param asyncSplits whether splits are evaluated in the background
+   */
+  public void setAsyncSplits(boolean asyncSplits) {
+    awaitSplits();
+    if (asyncSplits && splitEvaluator == null) {
+      splitEvaluator =
+          Executors.newSingleThreadExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "vfdt-split");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    this.asyncSplits = asyncSplits;
+  }
+
+  /**
+   * Waits until the split evaluator has handled all queued leaves.
+   *
+   * @throws IllegalStateException if a split evaluation failed
+   */
+  public void awaitSplits() {
+    if (splitEvaluator == null) return;
+    try {
+      splitEvaluator.submit(() -> {}).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    checkSplitFailure();
+  }
+
+  private void checkSplitFailure() {
+    if (splitFailure != null) {
+      throw new IllegalStateException("split evaluation failed", splitFailure);
+    }
+  }
+
+  /**
+   * Bounds the memory of the tree. When the estimated size of the nodes and of the counts of the
+   * active leaves exceeds the budget, the least promising leaves are deactivated: they drop their
+   * counts and only predict with their class totals. Every LEAF_REVIEW_PERIOD examples, inactive
+   * leaves that have become more promising than active ones are reactivated in their place.
+   *
+   * @param memoryBudget the budget in bytes, 0 for no limit
+   */
+  public void setMemoryBudget(long memoryBudget) {
+    this.memoryBudget = memoryBudget;
+    checkMemory();
+  }
+
+  /** @return the root of the tree */
+  public VfdtNode getRoot() {
+    return root;
+  }
+
+  /** @return the estimated size in bytes of all nodes and of the counts of the active leaves */
+  public long getMemoryUsed() {
+    return memoryUsed;
+  }
+
+  /**
+   * Deactivates leaves when the tree is over its memory budget, and reviews the inactive leaves
+   * every LEAF_REVIEW_PERIOD examples. Only called while no other thread is updating the tree.
+   */
+  private void checkMemory() {
+    if (memoryBudget <= 0) return;
+    if (memoryUsed > memoryBudget) {
+      deactivateLeaves();
+    } else if (nbExamplesProcessed - lastLeafReview >= LEAF_REVIEW_PERIOD) {
+      reviewLeaves();
+    }
+  }
+
+  /**
+   * Deactivates the least promising leaves until the tree is below the low water mark. The leaves
+   * are locked, as the split evaluator can be working on them.
+   */
+  private void deactivateLeaves() {
+    synchronized (leaves) {
+      deactivateLeavesLocked();
+    }
+  }
+
+  private void deactivateLeavesLocked() {
+    ArrayList<VfdtNode> active = new ArrayList<VfdtNode>();
+    for (VfdtNode leaf : leaves) {
+      if (leaf.isActive()) active.add(leaf);
+    }
+    active.sort(Comparator.comparingInt(VfdtNode::getPromise));
+    for (VfdtNode leaf : active) {
+      if (memoryUsed <= MEMORY_LOW_WATER * memoryBudget) break;
+      synchronized (leaf) {
+        memoryUsed += leaf.takeCountGrowth();
+        memoryUsed -= leaf.getCountBytes();
+        leaf.deactivate();
+      }
+    }
+  }
+
+  /**
+   * Reactivates the most promising inactive leaves, as long as they fit in the budget or there are
+   * less promising active leaves to deactivate for them.
+   */
+  private void reviewLeaves() {
+    synchronized (leaves) {
+      reviewLeavesLocked();
+    }
+  }
+
+  private void reviewLeavesLocked() {
+    lastLeafReview = nbExamplesProcessed;
+    ArrayList<VfdtNode> active = new ArrayList<VfdtNode>();
+    ArrayList<VfdtNode> inactive = new ArrayList<VfdtNode>();
+    for (VfdtNode leaf : leaves) {
+      (leaf.isActive() ? active : inactive).add(leaf);
+    }
+    if (inactive.isEmpty()) return;
+    active.sort(Comparator.comparingInt(VfdtNode::getPromise));
+    inactive.sort(Comparator.comparingInt(VfdtNode::getPromise).reversed());
+
+    int nextActive = 0; /* the least promising active leaf that is still active */
+    for (VfdtNode leaf : inactive) {
+      long bytes = leaf.getCountBytes();
+      while (memoryUsed + bytes > MEMORY_LOW_WATER * memoryBudget
+          && nextActive < active.size()
+          && active.get(nextActive).getPromise() < leaf.getPromise()) {
+        VfdtNode worse = active.get(nextActive++);
+        synchronized (worse) {
+          memoryUsed += worse.takeCountGrowth();
+          memoryUsed -= worse.getCountBytes();
+          worse.deactivate();
         }
       }
+      if (memoryUsed + bytes > MEMORY_LOW_WATER * memoryBudget) break;
+      synchronized (leaf) {
+        leaf.reactivate();
+      }
+      memoryUsed += bytes;
+    }
+  }
+
+  /**
+   * Removes the features from the leaf whose gain is so far below the best gain that they will not
+   * be chosen (with probability 1 - delta), see the paper.
+   *
+   * @param threshold the best gain minus the Hoeffding bound
+   */
+  private void removePoorFeatures(VfdtNode leaf, int[] features, double[] gains, double threshold) {
+    int nbPoor = 0;
+    int[] poor = new int[features.length];
+    for (int i = 0; i < features.length; i++) {
+      if (gains[i] < threshold) poor[nbPoor++] = features[i];
     }
-    updateLeaves(splittedLeaves, newLeaves);
+    if (nbPoor == 0) return;
+
+    long change;
+    synchronized (leaf) {
+      // with asyncSplits, the leaf went on counting since the gains were computed
+      change = leaf.takeCountGrowth();
+      long bytes = leaf.getCountBytes();
+      leaf.removeSplitFeatures(Arrays.copyOf(poor, nbPoor));
+      if (leaf.isActive()) change -= bytes - leaf.getCountBytes();
+    }
+    addCountGrowth(change);
   }
 
+  /**
+   * Drops the features of a leaf whose gain is consistently below the best one by more than the
+   * Hoeffding bound, which frees their counts. The dropped features then no longer count in the
+   * predictions of the leaf. On by default.
+   *
+   * @param poorAttributePruning whether poor features are removed from the leaves
+   */
+  public void setPoorAttributePruning(boolean poorAttributePruning) {
+    this.poorAttributePruning = poorAttributePruning;
+  }
+
+  /**
+   * Sets the number of possible split features from which the features of a leaf are evaluated in
+   * parallel on the common ForkJoin pool. Leaves with fewer features are evaluated on the calling
+   * thread. The chosen split does not depend on it.
+   *
+   * @param parallelSplitThreshold the number of features, Integer.MAX_VALUE to never evaluate in
+   *     parallel
+   */
+  public void setParallelSplitThreshold(int parallelSplitThreshold) {
+    this.parallelSplitThreshold = parallelSplitThreshold;
+  }
+
+  /**
+   * The two features with the highest positive gain. Features with the same gain are ordered by
+   * id, which gives the same result as scanning the features in increasing order and only
+   * replacing a feature by a strictly higher gain.
+   */
+  private static final class TopGains {
+
+    int bestFeature = -1;
+    double bestGain = 0;
+    int secondFeature = -1;
+    double secondGain = 0;
+
+    void offer(int feature, double gain) {
+      if (gain <= 0 || feature == bestFeature || feature == secondFeature) return;
+      if (isBetter(feature, gain, bestFeature, bestGain)) {
+        secondFeature = bestFeature;
+        secondGain = bestGain;
+        bestFeature = feature;
+        bestGain = gain;
+      } else if (isBetter(feature, gain, secondFeature, secondGain)) {
+        secondFeature = feature;
+        secondGain = gain;
+      }
+    }
+
+    void merge(TopGains other) {
+      if (other.bestFeature != -1) offer(other.bestFeature, other.bestGain);
+      if (other.secondFeature != -1) offer(other.secondFeature, other.secondGain);
+    }
 
-  private void updateLeaves(ArrayList<VfdtNode> lastLeafs, ArrayList<VfdtNode[]> newLeavesList){
-    for (VfdtNode lastLeaf : lastLeafs) {
-      leaves.remove(leaves.indexOf(lastLeaf));
+    private static boolean isBetter(int feature, double gain, int otherFeature, double otherGain) {
+      return otherFeature == -1
+          || gain > otherGain
+          || (gain == otherGain && feature < otherFeature);
     }
-    for (VfdtNode[] newLeaves : newLeavesList) {
-      for (VfdtNode newLeaf : newLeaves) {
-        leaves.add(newLeaf);
+  }
+
+  /** Evaluates a range of the possible split features of a leaf, split up while it is large. */
+  private static final class SplitEvalTask extends RecursiveTask<TopGains> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final VfdtNode leaf;
+    private final int[] features;
+    private final double[] gains; /* filled in for the range */
+    private final int from;
+    private final int to;
+    private final double priorEntropy;
+
+    SplitEvalTask(
+        VfdtNode leaf, int[] features, double[] gains, int from, int to, double priorEntropy) {
+      this.leaf = leaf;
+      this.features = features;
+      this.gains = gains;
+      this.from = from;
+      this.to = to;
+      this.priorEntropy = priorEntropy;
+    }
+
+    @Override
+    protected TopGains compute() {
+      if (to - from <= SPLIT_EVAL_CHUNK) {
+        TopGains top = new TopGains();
+        for (int i = from; i < to; i++) {
+          gains[i] = leaf.splitEval(features[i], priorEntropy);
+          top.offer(features[i], gains[i]);
+        }
+        return top;
       }
+      int middle = (from + to) >>> 1;
+      SplitEvalTask left = new SplitEvalTask(leaf, features, gains, from, middle, priorEntropy);
+      left.fork();
+      TopGains top =
+          new SplitEvalTask(leaf, features, gains, middle, to, priorEntropy).compute();
+      top.merge(left.join());
+      return top;
+    }
+  }
+
+  /**
+   * @return the estimated size in bytes of the subtree, as counted in memoryUsed
+   */
+  private static long estimateMemory(VfdtNode node) {
+    if (node.isActive()) node.takeCountGrowth(); // all of it is counted from now on
+    long bytes = NODE_BYTES + (node.isActive() ? node.getCountBytes() : 0);
+    if (node.getChildren() != null) {
+      for (VfdtNode child : node.getChildren()) bytes += estimateMemory(child);
     }
+    return bytes;
   }
+
   /**
    *  Finds all leaf nodes
    */
@@ -174,62 +716,185 @@ public class Vfdt extends IncrementalLearner<Integer> {
    */
   @Override
   public double makePrediction(Integer[] example) {
+    int[] values = new int[example.length];
+    for (int i = 0; i < example.length; i++) values[i] = example[i];
+    return makePrediction(values);
+  }
 
-    double prediction = 0;
-    VfdtNode node = this.root;
+  /**
+   * Uses the current model to calculate the probability that a row of the batch belongs to class
+   * "1", without boxing the example.
+   *
+   * @param batch are the test instances
+   * @param row is the row of the instance to classify
+   * @return the probability that the instance belongs to class "1"
+   */
+  @Override
+  public double makePrediction(ExampleBatch<Integer> batch, int row) {
+    return makePrediction(((IntExampleBatch) batch).attributeValues[row]);
+  }
 
-    // find the leaf node of the example
+  /**
+   * Uses the current model to calculate the probability that an example, given as primitive
+   * values, belongs to class "1";
+   *
+   * @param example is a the test instance to classify
+   * @return the probability that attributeValues belongs to class "1"
+   */
+  public double makePrediction(int[] example) {
+    TreeCompiler.Predictor frozen = frozenTree;
+    if (frozen != null) return frozen.predict(example);
 
-    while (node.getChildren() != null){
-      VfdtNode child = node.getChildren()[example[node.getSplitFeature()]];
+    // find the leaf node of the example, or the last node on its path with enough examples
+    CompiledTree tree = blockTree != null ? blockTree : compiledTree();
+    VfdtNode node = tree.nodeAt(tree.route(example));
 
-      // check if there are enough instances in child node, if not use the parent node for prediction
-      int instanceCount = child.getNbExamples();
+    // node is now the leaf node of the example
+    if (asyncSplits) {
+      // the split evaluator can change the counts of the leaf meanwhile
+      synchronized (node) {
+        return leafPrediction(node, example);
+      }
+    }
+    return leafPrediction(node, example);
+  }
+
+  /**
+   * Compiles the tree for serving, into a generated class that sorts an example with nested
+   * switches and has the predictions of inactive leaves as constants. Predictions use the compiled
+   * tree until the next update, which drops it. A tree that is too large to compile, or whose counts
+   * do not fit in a PredictionTable, keeps being predicted with the interpreted tree.
+   *
+   * @return whether the tree was compiled
+   */
+  public boolean freeze() {
+    awaitSplits(); // the tree must not change anymore
+    frozenTree = TreeCompiler.compile(root, MIN_PREDICTION_EXAMPLES);
+    return frozenTree != null;
+  }
 
-      // only use node for prediction if it has atleast nmin counts in total -> this doesnt mean has nmin examples
-      // every parent node will have this because a split will only happen in a node when nmin examples are seen in this node
-      // using nmin for this, could use other variable as this is not the true intention of nmin
-      if (instanceCount > 50) {
-        // go to next node and iterate through while loop
-        // while loop also stops when there are no childs thus if a child has enough instance counts -> child is used for prediction
-        node = child;
+  /** @return whether predictions use the tree compiled by freeze() */
+  public boolean isFrozen() {
+    return frozenTree != null;
+  }
+
+  /**
+   * Publishes a snapshot of the tree for threads that predict while this thread goes on training,
+   * see getSnapshot. Only the nodes that changed since the last snapshot are copied, the others are
+   * shared with it.
+   *
+   * @return the published snapshot
+   */
+  public TreeSnapshot publishSnapshot() {
+    snapshot = TreeSnapshot.of(root, MIN_PREDICTION_EXAMPLES, nbExamplesProcessed, asyncSplits);
+    lastSnapshot = nbExamplesProcessed;
+    return snapshot;
+  }
+
+  /**
+   * Returns the last published snapshot. Any thread can predict with it without locking, while the
+   * thread that trains the tree keeps calling update.
+   *
+   * @return the snapshot, null until the first one is published
+   */
+  public TreeSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Lets update publish a snapshot every snapshotPeriod examples, see publishSnapshot.
+   *
+   * @param snapshotPeriod the number of examples between snapshots, 0 to only publish them with
+   *     publishSnapshot
+   */
+  public void setSnapshotPeriod(int snapshotPeriod) {
+    this.snapshotPeriod = snapshotPeriod;
+  }
+
+  private void checkSnapshot() {
+    if (snapshotPeriod > 0 && nbExamplesProcessed - lastSnapshot >= snapshotPeriod) {
+      publishSnapshot();
+    }
+  }
+
+  /**
+   * Brings the compiled tree up to date once for the whole batch, the threads that score it only
+   * read it.
+   */
+  @Override
+  protected void beginPredictions() {
+    blockTree = compiledTree();
+  }
+
+  @Override
+  protected void endPredictions() {
+    blockTree = null;
+  }
+
+  /**
+   * Returns the compiled tree for prediction, it is laid out again after readModel and extended with
+   * the splits since the last prediction.
+   */
+  private CompiledTree compiledTree() {
+    if (compiledTree == null) {
+      synchronized (leaves) {
+        splitNodes.clear(); // splits from now on are extended, earlier ones are laid out
+        compiledSplits = nbSplits;
       }
-      else {
-        // stop going to next node because child has to few counts -> use parent node for prediction
-        break;
+      compiledTree = new CompiledTree(root, MIN_PREDICTION_EXAMPLES);
+    } else if (compiledSplits != nbSplits) {
+      VfdtNode[] split;
+      synchronized (leaves) {
+        split = splitNodes.toArray(new VfdtNode[splitNodes.size()]);
+        splitNodes.clear();
+        compiledSplits = nbSplits;
       }
+      for (VfdtNode node : split) compiledTree.extend(node);
+    }
+    return compiledTree;
+  }
 
-      /**
-      for (VfdtNode child : childs){
-        int nijk[][][] = child.getInstances();
-        if (nijk[0][0][node.getSplitFeature()] == example[node.getSplitFeature()]){
-          node = child;
-        }
-      }
-       **/
+  /**
+   * @param node the node that an example was sorted to
+   * @param example the example
+   * @return the probability that the example belongs to class "1", from the counts of the node
+   */
+  private static double leafPrediction(VfdtNode node, int[] example) {
+    if (!node.isActive()) {
+      // only the class totals are left
+      int total = node.getClassSummary(0) + node.getClassSummary(1);
+      return total == 0 ? 0.5 : (double) node.getClassSummary(1) / total;
     }
+    PredictionTable table = node.getPredictionTable();
+    if (table != null) return table.predict(example);
+    return countsPrediction(node, example);
+  }
 
-    // node is now the leaf node of the example
-    int nijk[][][] = node.getInstances();
+  /**
+   * @param node an active node whose counts are too large for a PredictionTable
+   * @param example the example
+   * @return the probability that the example belongs to class "1", from the counts of the node
+   */
+  static double countsPrediction(VfdtNode node, int[] example) {
+    double prediction = 0;
+    CountArray counts = node.getCounts();
 
     // prediction is 0.5 when no examples
-    if (nijk.length == 0){
+    if (node.getNbCountFeatures() == 0){
       return 0.5;
     }
     double examplePositiveSum = 0;
     double totalPositiveSum = 0;
-    for (int i = 0; i < nijk.length; i++) {
-      try {
-        examplePositiveSum += nijk[i][example[i]][1];
-        /**
-        for (int[] featureValues : nijk[i]) {
-          totalPositiveSum += featureValues[1];
-        }
-         */
-        totalPositiveSum += nijk[i][example[i]][0];
-      }
-      catch (NullPointerException e){
-        // not in nijk
+    for (int i = 0; i < node.getNbCountFeatures(); i++) {
+      int offset = node.getCountOffset(i);
+      // skip the features that are not in nijk
+      if (offset >= 0 && example[i] < node.getNbCountedValues(i)) {
+        examplePositiveSum += counts.get(offset + 2 * example[i] + 1);
+        totalPositiveSum += counts.get(offset + 2 * example[i]);
+      } else if (offset < 0 && example[i] < node.getNbCountedValues(i)) {
+        SparseCounts sparse = node.getSparseCounts(i);
+        examplePositiveSum += sparse.get(example[i], 1);
+        totalPositiveSum += sparse.get(example[i], 0);
       }
       if (totalPositiveSum > 0) {
         prediction = examplePositiveSum / (totalPositiveSum + examplePositiveSum);
@@ -247,27 +912,37 @@ public class Vfdt extends IncrementalLearner<Integer> {
    *
    * <p>The written file can be read in with readModel.
    *
+   * <p>readModel reads the counts as ints. A count of a leaf that has grown past
+   * Integer.MAX_VALUE could not be read back, so such a model is not written.
+   *
    * <p>THIS METHOD IS REQUIRED
    *
    * @param path the path to the file
-   * @throws IOException
+   * @throws IOException also if a count does not fit in an int, the file is then removed
    */
   @Override
   public void writeModel(String path) throws IOException {
+    awaitSplits(); // write a tree that is not changing
     VfdtNode node = this.root;
     File modelFile = new File(path);
     modelFile.createNewFile();
     FileWriter writer = new FileWriter(modelFile);
 
-    // first calculate node amount ant print in the first line
-    int nodeAmount = countNodes(node, 0);
-    writer.write(nodeAmount + "\n");
-
-    // write all the nodes with their respective node ID
-    int id = setLeafNodeIds(this.root, 0);
-    setDecisionNodeIds(this.root, id);
-    writeLeafNodes(this.root, writer);
-    writeDecisionNodes(this.root, writer);
+    try {
+      // first calculate node amount ant print in the first line
+      int nodeAmount = countNodes(node, 0);
+      writer.write(nodeAmount + "\n");
+
+      // write all the nodes with their respective node ID
+      int id = setLeafNodeIds(this.root, 0);
+      setDecisionNodeIds(this.root, id);
+      writeLeafNodes(this.root, writer);
+      writeDecisionNodes(this.root, writer);
+    } catch (IOException e) {
+      writer.close();
+      modelFile.delete(); // do not leave a model that cannot be read
+      throw e;
+    }
     writer.close();
 
   }
@@ -304,7 +979,7 @@ public class Vfdt extends IncrementalLearner<Integer> {
     if (node.getChildren() == null){
       // leaf nodes have null children, leaf nodes are then printed 
       // the node ID is actually the total amount of nodes - the given nodeID this makes us print the nodes bottom up
-      writer.write(node.getId()+ " L pf:" + intArrayToString(node.getPossibleSplitFeatures()) + " nijk:" + nijkToString(node.getInstances()) + "\n");
+      writer.write(node.getId()+ " L pf:" + intArrayToString(node.getPossibleSplitFeatures()) + " nijk:" + nijkToString(node) + "\n");
     }else{
       VfdtNode children[] = node.getChildren();
       for (VfdtNode child : children){
@@ -333,22 +1008,42 @@ public class Vfdt extends IncrementalLearner<Integer> {
     return str + "]";
   }
 
-  private String nijkToString(int[][][] nijk){
-    String nijkStrings = "[";
-    for (int featureId = 0; featureId < nijk.length; featureId++){
-      if (nijk[featureId] != null){
-        int featureVal = 0;
-        for (int[] counts : nijk[featureId]){
+  private String nijkToString(VfdtNode node) throws IOException {
+    StringBuilder nijkStrings = new StringBuilder("[");
+    CountArray counts = node.getCounts();
+    for (int featureId = 0; counts != null && featureId < node.getNbCountFeatures(); featureId++){
+      int offset = node.getCountOffset(featureId);
+      if (offset >= 0){
+        for (int featureVal = 0; featureVal < node.getNbCountedValues(featureId); featureVal++){
           for (int classVal = 0; classVal < 2; classVal++) {
-            if (counts[classVal] > 0) {
-              nijkStrings += featureId + ":" + featureVal + ":" + classVal + ":" + counts[classVal] + ",";
-            }
+            long count = counts.get(offset + 2 * featureVal + classVal);
+            appendCount(nijkStrings, featureId, featureVal, classVal, count);
+          }
+        }
+      } else if (node.getSparseCounts(featureId) != null){
+        SparseCounts sparse = node.getSparseCounts(featureId);
+        for (int featureVal : sparse.values()){
+          for (int classVal = 0; classVal < 2; classVal++) {
+            long count = sparse.get(featureVal, classVal);
+            appendCount(nijkStrings, featureId, featureVal, classVal, count);
           }
-          featureVal++;
         }
       }
     }
-    return nijkStrings + "]";
+    return nijkStrings.append("]").toString();
+  }
+
+  /** Appends a count that is not 0, it must fit in an int for stringToNijk. */
+  private static void appendCount(
+      StringBuilder nijkStrings, int featureId, int featureVal, int classVal, long count)
+      throws IOException {
+    if (count > Integer.MAX_VALUE) {
+      throw new IOException(
+          "count " + count + " of feature " + featureId + " is too large for readModel");
+    }
+    if (count > 0) {
+      nijkStrings.append(featureId + ":" + featureVal + ":" + classVal + ":" + count + ",");
+    }
   }
 
   private String nodesToString(VfdtNode[] nodes){
@@ -384,6 +1079,7 @@ public class Vfdt extends IncrementalLearner<Integer> {
    */
   @Override
   public void readModel(String path, int nbExamplesProcessed) throws IOException {
+    awaitSplits(); // the queued leaves belong to the old tree
     super.readModel(path, nbExamplesProcessed);
 
     /* FILL IN HERE */
@@ -409,6 +1105,10 @@ public class Vfdt extends IncrementalLearner<Integer> {
       int[] nbFeatureValues = readAllFeatureValues(nodeStrings);
 
       createTree(nodeStrings, nbFeatureValues);
+      leaves = new LinkedHashSet<VfdtNode>(Arrays.asList(findAllLeafNodes(root)));
+      compiledTree = null;
+      frozenTree = null;
+      memoryUsed = estimateMemory(root);
 
       
     }
@@ -673,26 +1373,46 @@ public class Vfdt extends IncrementalLearner<Integer> {
   public static void main(String[] args) {
     if (args.length < 7) {
       System.err.println(
-          "Usage: java Vfdt <delta> <tau> <nmin> <data set> <nbFeatureValues> <output file>"
-              + " <reportingPeriod> [-writeOutAllPredictions]");
-      throw new Error("Expected 7 or 8 arguments, got " + args.length + ".");
+          "Usage: java Vfdt <delta> <tau> <nmin> <data set | file | -> <nbFeatureValues>"
+              + " <output file> <reportingPeriod> [-writeOutAllPredictions] [-memoryMapped]"
+              + " [-pipelined] [-parallel] [-tail] [-concurrentTraining] [-memoryBudget=<MB>]"
+              + " [-asyncSplits]");
+      throw new Error("Expected at least 7 arguments, got " + args.length + ".");
     }
     try {
       // parse input
       double delta = Double.parseDouble(args[0]);
       double tau = Double.parseDouble(args[1]);
       int nmin = Integer.parseInt(args[2]);
-      Data<Integer> data = new IntData(args[3], ",");
+      Data<Integer> data;
+      if (Data.isStream(args[3])) {
+        data = new IntData(Data.openStream(args[3]), ",");
+      } else {
+        data = PackedData.isPacked(args[3]) ? new PackedData(args[3]) : new IntData(args[3], ",");
+      }
       int[] nbFeatureValues = parseNbFeatureValues(args[4]);
       String out = args[5];
       int reportingPeriod = Integer.parseInt(args[6]);
       boolean writeOutAllPredictions =
           args.length > 7 && args[7].contains("writeOutAllPredictions");
+      data.setOptions(args, 7);
 
       // initialize learner
       Vfdt vfdt = new Vfdt(nbFeatureValues, delta, tau, nmin);
+      for (int i = 7; i < args.length; i++) {
+        if (args[i].equals("-concurrentTraining")) {
+          vfdt.setTrainingThreads(Runtime.getRuntime().availableProcessors());
+        }
+        if (args[i].startsWith("-memoryBudget=")) {
+          vfdt.setMemoryBudget(Long.parseLong(args[i].substring("-memoryBudget=".length())) << 20);
+        }
+        if (args[i].equals("-asyncSplits")) {
+          vfdt.setAsyncSplits(true);
+        }
+      }
       // generate output for the learning curve
-      vfdt.makeLearningCurve(data, 0.5, out + ".vfdt", reportingPeriod, writeOutAllPredictions);
+      vfdt.makeBatchLearningCurve(
+          data, 0.5, out + ".vfdt", reportingPeriod, writeOutAllPredictions);
     } catch (IOException e) {
       System.err.println(e.toString());
     }
@@ -703,7 +1423,7 @@ public class Vfdt extends IncrementalLearner<Integer> {
    *
    * <p>DO NOT CHANGE THIS METHOD.
    */
-  private static int[] parseNbFeatureValues(String path) throws IOException {
+  static int[] parseNbFeatureValues(String path) throws IOException {
     BufferedReader reader = new BufferedReader(new FileReader(path));
     reader.readLine(); // skip header
     String[] splitLine = reader.readLine().split(",");
@@ -716,37 +1436,3 @@ public class Vfdt extends IncrementalLearner<Integer> {
     return nbFeatureValues;
   }
 }
-/**
- * This class implements Data for Integers
- *
- * <p>DO NOT CHANGE THIS CLASS
- */
-class IntData extends Data<Integer> {
-
-  public IntData(String dataDir, String sep) throws FileNotFoundException {
-    super(dataDir, sep);
-  }
-
-  @Override
-  protected Integer parseAttribute(String attrString) {
-    return Integer.parseInt(attrString);
-  }
-
-  @Override
-  protected Integer[] emptyAttributes(int i) {
-    return new Integer[i];
-  }
-
-  public static void main(String[] args) {
-    if (args.length < 3) {
-      throw new Error("Expected 2 arguments, got " + args.length + ".");
-    }
-
-    try {
-      Data<Integer> d = new IntData(args[0], args[1]);
-      d.print();
-    } catch (FileNotFoundException e) {
-      System.err.print(e.toString());
-    }
-  }
-}
@@ -10,13 +10,33 @@ import java.util.HashMap;
 /** This class is a stub for VFDT. */
 public class VfdtNode {
 
-  private VfdtNode[] children; /* child children (null if node is a leaf) */
+  /* child children (null if node is a leaf), volatile so that concurrent training can route
+   * examples without locking */
+  private volatile VfdtNode[] children;
 
-  private final int[] possibleSplitFeatures; /* The features that this node can split on */
+  private int[] possibleSplitFeatures; /* The features that this node can split on */
 
   private int splitFeature; /* splitting feature */
 
-  private int[][][] nijk; /* instance counts (see paper) */
+  /*
+   * instance counts (see paper), flattened: the count of feature i, value j and class k is at
+   * counts.get(countOffsets[i] + 2 * j + k). Only the counted features have counts, the offset of the
+   * other features is -1. Leaves created by the same split share countOffsets and nbCountedValues.
+   *
+   * Features with at least SPARSE_MIN_VALUES values are counted in sparseCounts instead, their
+   * offset is -1 as well but nbCountedValues is not 0. sparseCounts is null if there are none.
+   */
+  private CountArray counts; /* as narrow as the largest count allows */
+  private int[] countOffsets;
+  private int[] nbCountedValues; /* the number of values with counts, for every feature */
+  private SparseCounts[] sparseCounts;
+
+  private long accountedBytes; /* getCountBytes() at the last call to takeCountGrowth() */
+
+  private PredictionTable predictionTable; /* built for the first prediction, then kept up to date */
+
+  /* features with at least this many values are counted sparsely, a leaf often sees only a few */
+  public static final int SPARSE_MIN_VALUES = 256;
 
   /* FILL IN HERE */
 
@@ -24,6 +44,19 @@ public class VfdtNode {
 
   private int nbExamples;
 
+  private final int[] classCounts = new int[2]; /* the class totals of the counted examples */
+
+  /* the class totals of all examples, also those that reached the leaf while it was inactive */
+  private final int[] classSummary = new int[2];
+
+  private int nbExamplesSinceSplitAttempt; /* compared to nmin before evaluating a split */
+
+  private boolean splitAttemptQueued; /* waiting for the background split evaluation */
+
+  private int version; /* changed whenever the counts change, to know when to take a snapshot */
+
+  private TreeSnapshot.Node published; /* the last snapshot of this node, see TreeSnapshot */
+
   /**
    * Create and initialize a leaf node.
    *
@@ -36,40 +69,358 @@ public class VfdtNode {
     this.possibleSplitFeatures = possibleSplitFeatures;
     this.id = -1;
 
-    // add for each feature a list to nijk
-    this.nijk = new int[nbFeatureValues.length][][];
-    for (int featureCounts = 0; featureCounts < nbFeatureValues.length; featureCounts++){
-      // add only for splitfeatures the class lists
-      for (int splitFeature : possibleSplitFeatures){
-        if (featureCounts == splitFeature){
-          this.nijk[featureCounts] = new int[nbFeatureValues[featureCounts]][];
-          for (int classValueCounts = 0; classValueCounts < nbFeatureValues[featureCounts]; classValueCounts++) {
-            // add for each possible class value a count (positive and negative)
-            this.nijk[featureCounts][classValueCounts] = new int[2];
-            // initialize both on 0
-            this.nijk[featureCounts][classValueCounts][0] = 0;
-            this.nijk[featureCounts][classValueCounts][1] = 0;
-          }
-        }
+    // count only the split features, for each value a positive and a negative count
+    int[] countedFeatures =
+        Arrays.stream(possibleSplitFeatures).filter(f -> f < nbFeatureValues.length).toArray();
+    this.nbCountedValues = new int[nbFeatureValues.length];
+    for (int splitFeature : countedFeatures){
+      nbCountedValues[splitFeature] = nbFeatureValues[splitFeature];
+    }
+    this.countOffsets = offsetsOf(nbCountedValues, countedFeatures);
+    this.counts = new CountArray(sizeOf(nbCountedValues, countOffsets));
+    this.sparseCounts = newSparseCounts(nbCountedValues, countOffsets);
+    this.accountedBytes = getCountBytes();
+    this.children = null;
+  }
+
+  /**
+   * Create a leaf node with the same count layout as another node.
+   */
+  private VfdtNode(VfdtNode layout, int[] possibleSplitFeatures) {
+    this.possibleSplitFeatures = possibleSplitFeatures;
+    this.id = -1;
+    this.nbCountedValues = layout.nbCountedValues;
+    this.countOffsets = layout.countOffsets;
+    this.counts = new CountArray(sizeOf(nbCountedValues, countOffsets));
+    this.sparseCounts = newSparseCounts(nbCountedValues, countOffsets);
+    this.accountedBytes = getCountBytes();
+    this.children = null;
+  }
+
+  /**
+   * Create a copy of the counts of a leaf, without children.
+   */
+  private VfdtNode(VfdtNode leaf) {
+    this.possibleSplitFeatures = leaf.possibleSplitFeatures;
+    this.id = -1;
+    this.nbCountedValues = leaf.nbCountedValues;
+    this.countOffsets = leaf.countOffsets;
+    this.counts = leaf.counts == null ? null : leaf.counts.copy();
+    if (leaf.sparseCounts != null && leaf.counts != null){
+      this.sparseCounts = new SparseCounts[leaf.sparseCounts.length];
+      for (int i = 0; i < sparseCounts.length; i++){
+        if (leaf.sparseCounts[i] != null) sparseCounts[i] = leaf.sparseCounts[i].copy();
       }
     }
+    this.nbExamples = leaf.nbExamples;
+    System.arraycopy(leaf.classCounts, 0, classCounts, 0, 2);
+    System.arraycopy(leaf.classSummary, 0, classSummary, 0, 2);
     this.children = null;
   }
 
+  /**
+   * @return a number that changes whenever the counts or the class totals of the node change
+   */
+  public int getVersion(){
+    return version;
+  }
+
+  /**
+   * @return the snapshot node that was last taken of this node, null if none
+   */
+  public TreeSnapshot.Node getPublished(){
+    return published;
+  }
+
+  public void setPublished(TreeSnapshot.Node published){
+    this.published = published;
+  }
+
+  /**
+   * @return a copy of the counts of this leaf, to evaluate a split on while the leaf goes on
+   *     counting
+   */
+  public VfdtNode snapshot(){
+    return new VfdtNode(this);
+  }
+
+  /**
+   * Lays out the counts of the densely counted features one after the other
+   *
+   * @param nbCountedValues the number of values of every feature
+   * @param countedFeatures the counted features
+   * @return the offset of every feature, -1 if it is not counted or counted sparsely
+   */
+  private static int[] offsetsOf(int[] nbCountedValues, int[] countedFeatures){
+    int[] offsets = new int[nbCountedValues.length];
+    Arrays.fill(offsets, -1);
+    int size = 0;
+    for (int feature : countedFeatures){
+      if (offsets[feature] < 0 && !isSparse(nbCountedValues[feature])){
+        offsets[feature] = size;
+        size += 2 * nbCountedValues[feature];
+      }
+    }
+    return offsets;
+  }
+
+  private static boolean isSparse(int nbValues){
+    return nbValues >= SPARSE_MIN_VALUES;
+  }
+
+  /**
+   * @return empty sparse counts for the sparsely counted features, null if there are none
+   */
+  private static SparseCounts[] newSparseCounts(int[] nbCountedValues, int[] offsets){
+    SparseCounts[] sparse = null;
+    for (int i = 0; i < offsets.length; i++){
+      if (offsets[i] < 0 && nbCountedValues[i] > 0){
+        if (sparse == null) sparse = new SparseCounts[offsets.length];
+        sparse[i] = new SparseCounts();
+      }
+    }
+    return sparse;
+  }
+
+  private static int sizeOf(int[] nbCountedValues, int[] offsets){
+    int size = 0;
+    for (int i = 0; i < offsets.length; i++){
+      if (offsets[i] >= 0) size += 2 * nbCountedValues[i];
+    }
+    return size;
+  }
+
   /**
    * Add and example to the node
    */
   public void addExample(Example<Integer> example) {
-    for (int splitFeature : possibleSplitFeatures){
-      nijk[splitFeature][example.attributeValues[splitFeature]][example.classValue] += 1;
+    if (counts != null){
+      for (int splitFeature : possibleSplitFeatures){
+        int offset = countOffsets[splitFeature];
+        checkValue(splitFeature, example.attributeValues[splitFeature]);
+        if (offset >= 0){
+          counts.increment(offset + 2 * example.attributeValues[splitFeature] + example.classValue);
+          if (predictionTable != null
+              && !predictionTable.add(splitFeature, example.attributeValues[splitFeature], example.classValue)){
+            predictionTable = null; // built again with wider counts, or not at all
+          }
+        } else {
+          sparseCounts[splitFeature].add(example.attributeValues[splitFeature], example.classValue);
+        }
+      }
+      classCounts[example.classValue] += 1;
+      nbExamplesSinceSplitAttempt += 1;
     }
+    classSummary[example.classValue] += 1;
     nbExamples += 1;
+    version++;
+  }
+
+  /**
+   * Add an example to the node, given as primitive values
+   */
+  public void addExample(int[] attributeValues, int classValue) {
+    if (counts != null){
+      for (int splitFeature : possibleSplitFeatures){
+        int offset = countOffsets[splitFeature];
+        checkValue(splitFeature, attributeValues[splitFeature]);
+        if (offset >= 0){
+          counts.increment(offset + 2 * attributeValues[splitFeature] + classValue);
+          if (predictionTable != null
+              && !predictionTable.add(splitFeature, attributeValues[splitFeature], classValue)){
+            predictionTable = null; // built again with wider counts, or not at all
+          }
+        } else {
+          sparseCounts[splitFeature].add(attributeValues[splitFeature], classValue);
+        }
+      }
+      classCounts[classValue] += 1;
+      nbExamplesSinceSplitAttempt += 1;
+    }
+    classSummary[classValue] += 1;
+    nbExamples += 1;
+    version++;
+  }
+
+  /**
+   * Checks that a value has counts. The counts of all features share one array, so an out of
+   * range value would otherwise count for the next feature.
+   */
+  private void checkValue(int feature, int value){
+    if (value < 0 || value >= nbCountedValues[feature]){
+      throw new ArrayIndexOutOfBoundsException(
+          "value " + value + " of feature " + feature + " is out of range");
+    }
   }
 
   public int getNbExamples(){
     return nbExamples;
   }
 
+  /**
+   * @return the number of examples in the counts, the examples since the last reactivation
+   */
+  public int getNbCountedExamples(){
+    return classCounts[0] + classCounts[1];
+  }
+
+  /**
+   * @param classValue a class
+   * @return the number of examples of the class that reached this node
+   */
+  public int getClassSummary(int classValue){
+    return classSummary[classValue];
+  }
+
+  /**
+   * @return false if the counts were dropped by deactivate()
+   */
+  public boolean isActive(){
+    return counts != null;
+  }
+
+  /**
+   * Drops the counts to save memory. An inactive leaf only keeps the class totals, it can still
+   * predict with them but it cannot split until it is reactivated.
+   */
+  public void deactivate(){
+    counts = null;
+    sparseCounts = null;
+    predictionTable = null;
+    accountedBytes = getCountBytes();
+    Arrays.fill(classCounts, 0);
+    nbExamplesSinceSplitAttempt = 0;
+    version++;
+  }
+
+  /**
+   * Starts counting again, from zero, after deactivate().
+   */
+  public void reactivate(){
+    if (counts == null){
+      counts = new CountArray(sizeOf(nbCountedValues, countOffsets));
+      sparseCounts = newSparseCounts(nbCountedValues, countOffsets);
+      accountedBytes = getCountBytes();
+      version++;
+    }
+  }
+
+  /**
+   * @return the estimated size in bytes of the counts when the leaf is active, the counts grow
+   *     when they get wider and when the sparse counts see new values
+   */
+  public long getCountBytes(){
+    long bytes =
+        counts == null
+            ? CountArray.initialBytes(sizeOf(nbCountedValues, countOffsets))
+            : counts.getBytes();
+    for (int i = 0; i < countOffsets.length; i++){
+      if (countOffsets[i] < 0 && nbCountedValues[i] > 0){
+        bytes += sparseCounts == null ? SparseCounts.initialBytes() : sparseCounts[i].getBytes();
+      }
+    }
+    if (predictionTable != null) bytes += predictionTable.getBytes();
+    return bytes;
+  }
+
+  /**
+   * @return how many bytes the sparse counts grew since the last call
+   */
+  public long takeCountGrowth(){
+    long bytes = getCountBytes();
+    long growth = bytes - accountedBytes;
+    accountedBytes = bytes;
+    return growth;
+  }
+
+  /**
+   * @return how much the leaf could improve the tree by splitting: the number of examples that it
+   *     misclassifies (see the paper, the examples that reach the leaf times its error)
+   */
+  public int getPromise(){
+    return Math.min(classSummary[0], classSummary[1]);
+  }
+
+  /**
+   * @return the number of examples added since the last split attempt on this leaf
+   */
+  public int getNbExamplesSinceSplitAttempt(){
+    return nbExamplesSinceSplitAttempt;
+  }
+
+  /**
+   * Marks that a split was just evaluated for this leaf
+   */
+  public void resetSplitAttempt(){
+    nbExamplesSinceSplitAttempt = 0;
+    splitAttemptQueued = false;
+  }
+
+  /**
+   * @return whether a split attempt was queued for this leaf and not evaluated yet
+   */
+  public boolean isSplitAttemptQueued(){
+    return splitAttemptQueued;
+  }
+
+  /**
+   * Marks that a split attempt was queued for this leaf, until resetSplitAttempt()
+   *
+   * @return false if one was queued already
+   */
+  public boolean queueSplitAttempt(){
+    if (splitAttemptQueued) return false;
+    splitAttemptQueued = true;
+    return true;
+  }
+
+  /**
+   * Removes features from the possible split features of this leaf and frees their counts. The
+   * children of a later split do not get these features either. Without their counts, the features
+   * no longer count in the predictions of the leaf, which sum the counts of the counted features.
+   *
+   * @param features the features to remove
+   */
+  public void removeSplitFeatures(int[] features){
+    boolean[] removed = new boolean[countOffsets.length];
+    for (int feature : features){
+      if (feature < removed.length) removed[feature] = true;
+    }
+    possibleSplitFeatures =
+        Arrays.stream(possibleSplitFeatures)
+            .filter(f -> f >= removed.length || !removed[f])
+            .toArray();
+
+    // lay out the counts of the remaining features again, the old layout may be shared
+    int[] nbValues = nbCountedValues.clone();
+    for (int i = 0; i < nbValues.length; i++){
+      if (removed[i]) nbValues[i] = 0;
+    }
+    int[] countedFeatures =
+        Arrays.stream(possibleSplitFeatures)
+            .filter(f -> f < countOffsets.length && nbValues[f] > 0)
+            .toArray();
+    int[] offsets = offsetsOf(nbValues, countedFeatures);
+    if (counts != null){
+      CountArray newCounts = new CountArray(sizeOf(nbValues, offsets));
+      for (int i = 0; i < offsets.length; i++){
+        if (offsets[i] >= 0){
+          for (int j = 0; j < 2 * nbValues[i]; j++){
+            newCounts.add(offsets[i] + j, counts.get(countOffsets[i] + j));
+          }
+        } else if (sparseCounts != null && nbValues[i] == 0){
+          sparseCounts[i] = null;
+        }
+      }
+      counts = newCounts;
+    }
+    nbCountedValues = nbValues;
+    countOffsets = offsets;
+    predictionTable = null;
+    accountedBytes = getCountBytes();
+    version++;
+  }
+
   /**
    * Split on feature value
    */
@@ -85,9 +436,11 @@ public class VfdtNode {
       }
     }
 
-    // create childs
-    for (int i = 0; i < nbFeatureValues[splitFeature]; i++){
-      childs.add(new VfdtNode(nbFeatureValues, newPossibleSplitFeatures));
+    // create childs, they all count the same features
+    VfdtNode first = new VfdtNode(nbFeatureValues, newPossibleSplitFeatures);
+    childs.add(first);
+    for (int i = 1; i < nbFeatureValues[splitFeature]; i++){
+      childs.add(new VfdtNode(first, newPossibleSplitFeatures));
     }
     addChildren(splitFeature, childs.toArray(new VfdtNode[nbFeatureValues[splitFeature]]));
     return childs.toArray(new VfdtNode[nbFeatureValues[splitFeature]]);
@@ -103,8 +456,10 @@ public class VfdtNode {
    */
   public void addChildren(int splitFeature, VfdtNode[] nodes) {
     if (nodes == null) throw new IllegalArgumentException("null children");
-    this.children = nodes;
+    // publish the split feature before the children, a reader that sees the children sees it too
     this.splitFeature = splitFeature;
+    this.children = nodes;
+    this.predictionTable = null; // only leaves keep a table
     //nbSplits++;
   }
 
@@ -128,20 +483,140 @@ public class VfdtNode {
   }
 
   /**
+   * Returns a copy of the counts as nijk[feature][value][class], null for the features that are not
+   * counted. Counts that do not fit in an int are given as Integer.MAX_VALUE.
    *
    * @return
    */
   public int[][][] getInstances(){
-    return this.nijk;
+    int[][][] nijk = new int[countOffsets.length][][];
+    for (int i = 0; i < countOffsets.length; i++){
+      if (countOffsets[i] >= 0 && counts != null){
+        nijk[i] = new int[nbCountedValues[i]][2];
+        for (int j = 0; j < nbCountedValues[i]; j++){
+          nijk[i][j][0] = (int) Math.min(counts.get(countOffsets[i] + 2 * j), Integer.MAX_VALUE);
+          nijk[i][j][1] =
+              (int) Math.min(counts.get(countOffsets[i] + 2 * j + 1), Integer.MAX_VALUE);
+        }
+      } else if (nbCountedValues[i] > 0 && sparseCounts != null){
+        nijk[i] = new int[nbCountedValues[i]][2];
+        for (int j : sparseCounts[i].values()){
+          nijk[i][j][0] = (int) Math.min(sparseCounts[i].get(j, 0), Integer.MAX_VALUE);
+          nijk[i][j][1] = (int) Math.min(sparseCounts[i].get(j, 1), Integer.MAX_VALUE);
+        }
+      }
+    }
+    return nijk;
   }
 
   /**
-   * Add instance to node
+   * Replace the counts of the node by nijk[feature][value][class], features without counts are
+   * null
    * @param nijk
    * @return
    */
   public void setInstances(int[][][] nijk){
-    this.nijk = nijk;
+    int[] nbValues = new int[nijk.length];
+    int nbCounted = 0;
+    for (int i = 0; i < nijk.length; i++){
+      if (nijk[i] != null){
+        nbValues[i] = nijk[i].length;
+        nbCounted++;
+      }
+    }
+    int[] countedFeatures = new int[nbCounted];
+    for (int i = 0, j = 0; i < nijk.length; i++){
+      if (nijk[i] != null) countedFeatures[j++] = i;
+    }
+
+    this.nbCountedValues = nbValues;
+    this.countOffsets = offsetsOf(nbValues, countedFeatures);
+    this.counts = new CountArray(sizeOf(nbValues, countOffsets));
+    this.sparseCounts = newSparseCounts(nbValues, countOffsets);
+    for (int i : countedFeatures){
+      for (int j = 0; j < nbValues[i]; j++){
+        if (countOffsets[i] >= 0){
+          counts.add(countOffsets[i] + 2 * j, nijk[i][j][0]);
+          counts.add(countOffsets[i] + 2 * j + 1, nijk[i][j][1]);
+        } else {
+          for (int k = 0; k < 2; k++){
+            if (nijk[i][j][k] > 0) sparseCounts[i].add(j, k, nijk[i][j][k]);
+          }
+        }
+      }
+    }
+    this.predictionTable = null;
+    this.accountedBytes = getCountBytes();
+
+    // every example is counted once for every feature, take the class totals of the first one
+    Arrays.fill(classCounts, 0);
+    if (countedFeatures.length > 0){
+      int first = countedFeatures[0];
+      for (int j = 0; j < nbValues[first]; j++){
+        classCounts[0] += nijk[first][j][0];
+        classCounts[1] += nijk[first][j][1];
+      }
+    }
+    classSummary[0] = classCounts[0];
+    classSummary[1] = classCounts[1];
+    version++;
+  }
+
+  /**
+   * Returns the counts laid out for prediction. The table is built for the first call and kept up
+   * to date by addExample. It takes 8 bytes per value, next to the counts, so it trades memory of
+   * the budget for prediction speed. Only leaves get a table: an internal node only predicts the
+   * examples of a child with too few examples, with its counts.
+   *
+   * @return the table, null if the node is not an active leaf or if its counts are too large for a
+   *     table
+   */
+  public PredictionTable getPredictionTable(){
+    if (predictionTable == null && counts != null && children == null){
+      predictionTable = PredictionTable.of(this);
+    }
+    return predictionTable;
+  }
+
+  /**
+   * @return the flat counts, see getCountOffset, null if the node is not active
+   */
+  public CountArray getCounts(){
+    return this.counts;
+  }
+
+  /**
+   * @return the number of features that the counts are laid out for
+   */
+  public int getNbCountFeatures(){
+    return this.countOffsets.length;
+  }
+
+  /**
+   * @param feature a feature
+   * @return the index in getCounts() of the negative count of value 0 of the feature, the count of
+   *     value j and class k follows at 2 * j + k. -1 if the feature is not counted or if it is
+   *     counted in getSparseCounts(feature).
+   */
+  public int getCountOffset(int feature){
+    return this.countOffsets[feature];
+  }
+
+  /**
+   * @param feature a feature
+   * @return the counts of a feature with at least SPARSE_MIN_VALUES values, null for the other
+   *     features and if the node is not active
+   */
+  public SparseCounts getSparseCounts(int feature){
+    return sparseCounts == null ? null : sparseCounts[feature];
+  }
+
+  /**
+   * @param feature a feature
+   * @return the number of values of the feature that are counted
+   */
+  public int getNbCountedValues(int feature){
+    return this.nbCountedValues[feature];
   }
 
   /**
@@ -159,6 +634,19 @@ public class VfdtNode {
     return leaf;
   }
 
+  /**
+   * Returns the leaf node corresponding to the test attributeValues, given as primitive values.
+   *
+   * @param example is the test attributeValues to sort.
+   */
+  public VfdtNode sortExample(int[] example) {
+    VfdtNode leaf = this;
+    while (leaf.getChildren() != null){
+      leaf = leaf.getChildren()[example[leaf.splitFeature]];
+    }
+    return leaf;
+  }
+
   /**
    * Split evaluation method (function G in the paper)
    *
@@ -170,7 +658,40 @@ public class VfdtNode {
    * @param featureId is the feature to be considered.
    */
   public double splitEval(int featureId) {
-    return informationGain(featureId, nijk);
+    return splitEval(featureId, priorEntropy());
+  }
+
+  /**
+   * Split evaluation with the entropy of the leaf before splitting already known. The prior
+   * entropy is the same for all features, so it only has to be computed once per split attempt.
+   *
+   * <p>The result is exactly the same as splitEval(featureId): the class totals of a feature are
+   * the class totals of the leaf, so the prior entropy is computed from the same ratio.
+   *
+   * @param featureId is the feature to be considered.
+   * @param priorEntropy is the result of priorEntropy().
+   */
+  public double splitEval(int featureId, double priorEntropy) {
+    int nbValues = nbCountedValues[featureId];
+    if (nbValues == 0) return 0; // no counts, so no entropy before or after
+    if (countOffsets[featureId] < 0){
+      // the free slots have no counts, so they are skipped like the values that did not occur
+      SparseCounts sparse = sparseCounts[featureId];
+      return priorEntropy - postEntropy(sparse.getCounts(), 0, sparse.capacity());
+    }
+    return priorEntropy - postEntropy(counts, countOffsets[featureId], nbValues);
+  }
+
+  /**
+   * @return the entropy of the class in this leaf, from the class totals that are kept up to date
+   *     by addExample
+   */
+  public double priorEntropy() {
+    double totalInstances = classCounts[0] + classCounts[1];
+    if (totalInstances == 0){
+      return 0;
+    }
+    return calculateEntropy(classCounts[1] / totalInstances);
   }
 
   /**
@@ -182,37 +703,54 @@ public class VfdtNode {
    * @param nijk are the instance counts.
    */
   public static double informationGain(int featureId, int[][][] nijk) {
+    CountArray njk = new CountArray(2 * nijk[featureId].length);
+    for (int j = 0; j < nijk[featureId].length; j++) {
+      njk.add(2 * j, nijk[featureId][j][0]);
+      njk.add(2 * j + 1, nijk[featureId][j][1]);
+    }
+    return informationGain(njk, 0, nijk[featureId].length);
+  }
+
+  /**
+   * Compute the information gain of a feature from flat counts.
+   *
+   * @param counts are the instance counts, the count of value j and class k at offset + 2 * j + k.
+   * @param offset is the offset of the counts of the feature.
+   * @param nbValues is the number of values of the feature.
+   */
+  public static double informationGain(CountArray counts, int offset, int nbValues) {
     // calculate the entropy before splitting
-    double priorEntropy = entropy(nijk[featureId]);
+    double priorEntropy = entropy(counts, offset, nbValues);
 
     // calculate entropy after splitting
-    double postEntropy = entropy(nijk, featureId);
+    double postEntropy = postEntropy(counts, offset, nbValues);
 
     return priorEntropy - postEntropy;
   }
 
-  private static double entropy(int[][][] nijk, int featureId) {
+  private static double postEntropy(CountArray counts, int offset, int nbValues) {
     double entropy = 0;
 
     // loop to count instances for each feature value
-    for (int i = 0; i < nijk[featureId].length; i++) {
-      if (nijk[featureId][i][0] + nijk[featureId][i][1] != 0) {
-        double p = (double)((nijk[featureId][i][0]) / (nijk[featureId][i][0] + nijk[featureId][i][1]));
+    for (int i = offset; i < offset + 2 * nbValues; i += 2) {
+      long negatives = counts.get(i);
+      long positives = counts.get(i + 1);
+      if (negatives + positives != 0) {
+        double p = (double)((negatives) / (negatives + positives));
         entropy += calculateEntropy(p);
       }
     }
     return entropy;
   }
 
-  private static double entropy(int[][] njk){
-    double h = 0;
+  private static double entropy(CountArray counts, int offset, int nbValues){
     double classCount = 0;
     double totalInstances = 0;
 
     // loop to count total amount of instances
-    for (int[] featureValCounts : njk) {
-      totalInstances += (featureValCounts[0] + featureValCounts[1]);
-      classCount += featureValCounts[1];
+    for (int i = offset; i < offset + 2 * nbValues; i += 2) {
+      totalInstances += (counts.get(i) + counts.get(i + 1));
+      classCount += counts.get(i + 1);
     }
     if (totalInstances == 0){
       return 0;
@@ -232,11 +770,13 @@ public class VfdtNode {
     if (p == 0 || b == 0) {
       entropy = 0;
     } else {
-      entropy = -(p * Math.log(p) / Math.log(2) + b * Math.log(b) / Math.log(2));
+      entropy = -(p * Math.log(p) / LOG_2 + b * Math.log(b) / LOG_2);
     }
     return entropy;
   }
 
+  private static final double LOG_2 = Math.log(2);
+
   public void setId(int id){
     this.id = id;
   }
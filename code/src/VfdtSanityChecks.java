@@ -5,7 +5,16 @@
 import static org.junit.Assert.*;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 import org.junit.*;
 
 public class VfdtSanityChecks {
@@ -93,6 +102,22 @@ public class VfdtSanityChecks {
         actualVisualization);
   }
 
+  @Test
+  public void countTooLargeToReadIsNotWritten() throws Exception {
+    learner.update(example1);
+    // a count past Integer.MAX_VALUE, as after a very long stream
+    learner.getRoot().getCounts().add(0, Integer.MAX_VALUE + 1L);
+    assertEquals("The counts should be longs", 8, learner.getRoot().getCounts().getWidth());
+    String path = "output/vfdtSanityOutLong.model";
+    try {
+      learner.writeModel(path);
+      fail("A count that readModel cannot read should not be written");
+    } catch (IOException e) {
+      // expected
+    }
+    assertFalse("The model file should be removed", new File(path).exists());
+  }
+
   @Test
   public void vfdtNode() throws Exception {
     int[] featureValues = new int[] {3, 3, 2};
@@ -158,4 +183,451 @@ public class VfdtSanityChecks {
         ig,
         0.0000001);
   }
+
+  @Test
+  public void sparseCountsGrow() throws Exception {
+    SparseCounts sparse = new SparseCounts();
+    int initialCapacity = sparse.capacity();
+    // a count wider than a byte, to be moved by every grow
+    sparse.add(Integer.MAX_VALUE, 1, 70000);
+    Map<Integer, long[]> expected = new TreeMap<>();
+    expected.put(Integer.MAX_VALUE, new long[] {0, 70000});
+    Random random = new Random(5);
+    // many more values than slots, so values share a home slot and are probed past each other
+    for (int i = 0; i < 20000; i++) {
+      int value = random.nextInt(1000) * 4096;
+      int classValue = random.nextInt(2);
+      sparse.add(value, classValue);
+      expected.computeIfAbsent(value, v -> new long[2])[classValue]++;
+    }
+    assertTrue(
+        "The table should have grown several times", sparse.capacity() >= 64 * initialCapacity);
+    assertEquals("Every value should be counted once", expected.size(), sparse.size());
+
+    int[] values = sparse.values();
+    assertEquals(expected.size(), values.length);
+    int i = 0;
+    for (Map.Entry<Integer, long[]> entry : expected.entrySet()) {
+      assertEquals("The values should be in increasing order", (int) entry.getKey(), values[i++]);
+      assertEquals(entry.getValue()[0], sparse.get(entry.getKey(), 0));
+      assertEquals(entry.getValue()[1], sparse.get(entry.getKey(), 1));
+    }
+    assertEquals("A value that did not occur has no counts", 0, sparse.get(4095, 0));
+    assertEquals("A value that did not occur has no counts", 0, sparse.get(4095, 1));
+  }
+
+  @Test
+  public void sparseCountsAsDense() throws Exception {
+    // the same examples, with a first feature of 300 values in one leaf and of 200 in the other
+    VfdtNode sparseLeaf = new VfdtNode(new int[] {300, 3}, new int[] {0, 1});
+    VfdtNode denseLeaf = new VfdtNode(new int[] {200, 3}, new int[] {0, 1});
+    assertTrue("300 values should be counted sparsely", sparseLeaf.getCountOffset(0) < 0);
+    assertTrue("200 values should be counted densely", denseLeaf.getCountOffset(0) >= 0);
+    Random random = new Random(9);
+    for (int i = 0; i < 5000; i++) {
+      int[] example = new int[] {random.nextInt(200), random.nextInt(3)};
+      int classValue = (example[0] % 3 == 0) != (random.nextInt(5) == 0) ? 1 : 0;
+      sparseLeaf.addExample(example, classValue);
+      denseLeaf.addExample(example, classValue);
+    }
+    assertTrue(
+        "The sparse counts should have grown",
+        sparseLeaf.getSparseCounts(0).capacity() > 200);
+
+    for (int feature = 0; feature < 2; feature++) {
+      assertEquals(
+          "The gains should not depend on how the counts are stored",
+          denseLeaf.splitEval(feature),
+          sparseLeaf.splitEval(feature),
+          1e-12);
+    }
+    for (int value = 0; value < 200; value++) {
+      for (int other = 0; other < 3; other++) {
+        int[] example = new int[] {value, other};
+        assertEquals(
+            "The predictions should not depend on how the counts are stored",
+            Vfdt.countsPrediction(denseLeaf, example),
+            Vfdt.countsPrediction(sparseLeaf, example),
+            0.0);
+      }
+    }
+  }
+
+  @Test
+  public void asyncSplitsWithBudget() throws Exception {
+    int[] featureValues = new int[] {3, 4, 3, 3, 300, 2};
+    Vfdt vfdt = new Vfdt(featureValues, 1e-7, 0.05, 50);
+    vfdt.setAsyncSplits(true);
+    vfdt.setTrainingThreads(2);
+    vfdt.setMemoryBudget(12000);
+    IntExampleBatch batch = new IntExampleBatch(1000, featureValues.length);
+    Random random = new Random(3);
+    for (int b = 0; b < 200; b++) {
+      fillBatch(batch, featureValues, random);
+      vfdt.update(batch);
+    }
+    vfdt.awaitSplits();
+
+    ArrayList<VfdtNode> nodes = new ArrayList<VfdtNode>();
+    collectNodes(vfdt.getRoot(), nodes);
+    long nbCounted = 0;
+    for (VfdtNode node : nodes) {
+      nbCounted += node.getNbExamples(); // a node only counts examples while it is a leaf
+      if (node.getChildren() == null) {
+        assertFalse(
+            "A leaf should not stay queued once all split attempts are done",
+            node.isSplitAttemptQueued());
+      }
+    }
+    assertEquals(
+        "Every example should be counted in exactly one node", vfdt.nbExamplesProcessed, nbCounted);
+    assertTrue("The tree should have split", vfdt.getRoot().getChildren() != null);
+  }
+
+  @Test
+  public void interruptedConcurrentUpdateAddsTheWholeBatch() throws Exception {
+    int[] featureValues = new int[] {3, 4, 3, 3, 2};
+    Vfdt vfdt = new Vfdt(featureValues, 1e-7, 0.05, 200);
+    vfdt.setTrainingThreads(4);
+    IntExampleBatch batch = new IntExampleBatch(20000, featureValues.length);
+    fillBatch(batch, featureValues, new Random(29));
+    Thread.currentThread().interrupt();
+    vfdt.update(batch);
+    assertTrue("The interrupt should be kept", Thread.interrupted());
+
+    ArrayList<VfdtNode> nodes = new ArrayList<VfdtNode>();
+    collectNodes(vfdt.getRoot(), nodes);
+    long nbCounted = 0;
+    for (VfdtNode node : nodes) nbCounted += node.getNbExamples();
+    assertEquals("The whole batch should be processed", 20000, vfdt.nbExamplesProcessed);
+    assertEquals("Every example should be counted once", vfdt.nbExamplesProcessed, nbCounted);
+  }
+
+  @Test
+  public void leafDeactivatedWhileQueuedCanSplitAgain() throws Exception {
+    Vfdt vfdt = new Vfdt(new int[] {3, 3, 2}, 0.05, 0.05, 10);
+    vfdt.setAsyncSplits(true);
+    VfdtNode root = vfdt.getRoot();
+    // the split evaluator waits for the lock of the root, so the root is deactivated while queued
+    synchronized (root) {
+      for (int i = 0; i < 10; i++) vfdt.update(i % 2 == 0 ? example1 : example2);
+      assertTrue("The root should be queued after nmin examples", root.isSplitAttemptQueued());
+      vfdt.setMemoryBudget(1);
+      assertFalse("The root should be deactivated", root.isActive());
+    }
+    vfdt.awaitSplits();
+    assertFalse(
+        "A leaf that was deactivated while queued should be able to be queued again",
+        root.isSplitAttemptQueued());
+
+    // reactivated at the next review of the inactive leaves, it splits again
+    vfdt.setMemoryBudget(1 << 20);
+    for (int i = 0; i < 10100; i++) vfdt.update(i % 2 == 0 ? example1 : example2);
+    vfdt.awaitSplits();
+    assertTrue("The reactivated root should split", root.getChildren() != null);
+  }
+
+  @Test
+  public void snapshotsDoNotChange() throws Exception {
+    int[] featureValues = new int[] {3, 4, 3, 3, 300, 2};
+    Vfdt vfdt = new Vfdt(featureValues, 1e-7, 0.05, 200);
+    IntExampleBatch batch = new IntExampleBatch(1000, featureValues.length);
+    Random random = new Random(5);
+    for (int b = 0; b < 5; b++) {
+      fillBatch(batch, featureValues, random);
+      vfdt.update(batch);
+    }
+    TreeSnapshot first = vfdt.publishSnapshot();
+    assertSame("The published snapshot should be returned", first, vfdt.getSnapshot());
+    IntExampleBatch test = new IntExampleBatch(1000, featureValues.length);
+    fillBatch(test, featureValues, random);
+    double[] firstPredictions = new double[test.size()];
+    for (int row = 0; row < test.size(); row++) {
+      firstPredictions[row] = first.makePrediction(test.attributeValues[row]);
+      assertEquals(
+          "A snapshot should predict as the tree did when it was published",
+          vfdt.makePrediction(test.attributeValues[row]),
+          firstPredictions[row],
+          0.0);
+    }
+
+    vfdt.setSnapshotPeriod(5000);
+    for (int b = 0; b < 20; b++) {
+      fillBatch(batch, featureValues, random);
+      vfdt.update(batch);
+    }
+    assertEquals(
+        "A snapshot should be published every 5000 examples",
+        vfdt.nbExamplesProcessed,
+        vfdt.getSnapshot().getNbExamplesProcessed());
+    TreeSnapshot second = vfdt.publishSnapshot();
+    int changed = 0;
+    for (int row = 0; row < test.size(); row++) {
+      assertEquals(
+          "An older snapshot should not change while the tree learns",
+          firstPredictions[row],
+          first.makePrediction(test.attributeValues[row]),
+          0.0);
+      assertEquals(
+          "A republished snapshot should predict as the tree",
+          vfdt.makePrediction(test.attributeValues[row]),
+          second.makePrediction(test.attributeValues[row]),
+          0.0);
+      if (firstPredictions[row] != second.makePrediction(test.attributeValues[row])) changed++;
+    }
+    assertTrue("The tree should have learned between the snapshots", changed > 0);
+  }
+
+  @Test
+  public void frozenTreePredictsAsInterpreted() throws Exception {
+    int[] featureValues = new int[] {3, 4, 3, 3, 2};
+    Vfdt vfdt = new Vfdt(featureValues, 1e-7, 0.05, 200);
+    vfdt.setMemoryBudget(9000); // a little less than the whole tree needs
+    IntExampleBatch batch = new IntExampleBatch(1000, featureValues.length);
+    Random random = new Random(7);
+    for (int b = 0; b < 40; b++) {
+      fillBatch(batch, featureValues, random);
+      vfdt.update(batch);
+    }
+    ArrayList<VfdtNode> nodes = new ArrayList<VfdtNode>();
+    collectNodes(vfdt.getRoot(), nodes);
+    boolean active = false;
+    boolean inactive = false;
+    for (VfdtNode node : nodes) {
+      if (node.getChildren() == null && node.isActive()) active = true;
+      if (node.getChildren() == null && !node.isActive()) inactive = true;
+    }
+    assertTrue("The tree should have active and inactive leaves", active && inactive);
+
+    IntExampleBatch test = new IntExampleBatch(1000, featureValues.length);
+    fillBatch(test, featureValues, random);
+    double[] interpreted = new double[test.size()];
+    for (int row = 0; row < test.size(); row++) {
+      interpreted[row] = vfdt.makePrediction(test.attributeValues[row]);
+    }
+    assertTrue("The tree should be small enough to compile", vfdt.freeze());
+    for (int row = 0; row < test.size(); row++) {
+      assertEquals(
+          "The compiled tree should predict as the interpreted tree",
+          interpreted[row],
+          vfdt.makePrediction(test.attributeValues[row]),
+          0.0);
+    }
+
+    vfdt.update(test);
+    assertFalse("An update should drop the compiled tree", vfdt.isFrozen());
+  }
+
+  @Test
+  public void parallelPredictionsAsRowByRow() throws Exception {
+    int[] featureValues = new int[] {3, 4, 3, 3, 300, 2};
+    Vfdt vfdt = new Vfdt(featureValues, 1e-7, 0.05, 200);
+    IntExampleBatch batch = new IntExampleBatch(1000, featureValues.length);
+    Random random = new Random(19);
+    for (int b = 0; b < 20; b++) {
+      fillBatch(batch, featureValues, random);
+      vfdt.update(batch);
+    }
+    // several ForkJoin tasks
+    IntExampleBatch test = new IntExampleBatch(5000, featureValues.length);
+    fillBatch(test, featureValues, random);
+    double[] expected = new double[test.size()];
+    for (int row = 0; row < test.size(); row++) {
+      expected[row] = vfdt.makePrediction(test.attributeValues[row]);
+    }
+
+    vfdt.setParallelPredictionThreshold(1);
+    double[] out = new double[test.size() + 10];
+    assertSame(
+        "An array that is large enough should be reused", out, vfdt.makePredictions(test, out));
+    for (int row = 0; row < test.size(); row++) {
+      assertEquals(
+          "Parallel predictions should equal row by row predictions", expected[row], out[row], 0.0);
+    }
+    double[] small = new double[10];
+    double[] probs = vfdt.makePredictions(test, small);
+    assertNotSame("An array that is too small should not be used", small, probs);
+    assertArrayEquals(
+        "Parallel predictions should equal row by row predictions", expected, probs, 0.0);
+    vfdt.setParallelPredictionThreshold(Integer.MAX_VALUE);
+    assertArrayEquals(
+        "Sequential predictions should equal row by row predictions",
+        expected,
+        vfdt.makePredictions(test, null),
+        0.0);
+  }
+
+  @Test
+  public void parallelSplitEvaluationAsSequential() throws Exception {
+    // 200 features, four chunks of 64 and more; every feature is a copy of one of the first ten,
+    // so gains are equal between the copies and ties are broken by feature id
+    int[] featureValues = new int[201];
+    for (int i = 0; i < 200; i++) featureValues[i] = 2 + (i % 10) % 3;
+    featureValues[200] = 2;
+    Vfdt sequential = new Vfdt(featureValues, 1e-7, 0.05, 200);
+    sequential.setParallelSplitThreshold(Integer.MAX_VALUE);
+    sequential.setPoorAttributePruning(true);
+    Vfdt parallel = new Vfdt(featureValues, 1e-7, 0.05, 200);
+    parallel.setParallelSplitThreshold(1);
+    parallel.setPoorAttributePruning(true);
+
+    IntExampleBatch batch = new IntExampleBatch(1000, featureValues.length);
+    Random random = new Random(31);
+    for (int b = 0; b < 20; b++) {
+      for (int row = 0; row < batch.capacity(); row++) {
+        int[] values = batch.attributeValues[row];
+        for (int i = 0; i < 10; i++) values[i] = random.nextInt(featureValues[i]);
+        for (int i = 10; i < 200; i++) values[i] = values[i % 10];
+        values[200] = random.nextInt(2);
+        int classValue = (values[0] + values[1] * values[2] + values[3]) % 2;
+        batch.classValues[row] = random.nextInt(10) == 0 ? 1 - classValue : classValue;
+      }
+      batch.setSize(batch.capacity());
+      sequential.update(batch);
+      parallel.update(batch);
+    }
+    assertTrue("The tree should have split", sequential.getRoot().getChildren() != null);
+    assertTrue(
+        "Of equal gains the lowest feature id should be chosen",
+        parallel.getRoot().getSplitFeature() < 10);
+
+    String sequentialPath = "output/vfdtSanitySequential.model";
+    String parallelPath = "output/vfdtSanityParallel.model";
+    sequential.writeModel(sequentialPath);
+    parallel.writeModel(parallelPath);
+    assertEquals(
+        "Parallel split evaluation should build the same model",
+        new String(Files.readAllBytes(Paths.get(sequentialPath)), StandardCharsets.US_ASCII),
+        new String(Files.readAllBytes(Paths.get(parallelPath)), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void largeTreeIsNotCompiled() throws Exception {
+    // the root splits on a feature with 3000 values, its switch alone is larger than a method
+    int[] featureValues = new int[] {3000, 2};
+    Vfdt vfdt = new Vfdt(featureValues, 1e-7, 0.05, 200);
+    Random random = new Random(11);
+    for (int i = 0; i < 2000; i++) {
+      int value = random.nextInt(3000);
+      vfdt.update(new Example<Integer>(new Integer[] {value, random.nextInt(2)}, value % 2));
+    }
+    assertEquals("The root should split on the first feature", 0, vfdt.getRoot().getSplitFeature());
+    assertTrue("The root should split", vfdt.getRoot().getChildren() != null);
+    int[] example = new int[] {7, 1};
+    double interpreted = vfdt.makePrediction(example);
+    assertFalse("A tree that is too large should not be compiled", vfdt.freeze());
+    assertFalse(vfdt.isFrozen());
+    assertEquals(
+        "A tree that is not compiled should still predict",
+        interpreted,
+        vfdt.makePrediction(example),
+        0.0);
+  }
+
+  @Test
+  public void removeSplitFeatures() throws Exception {
+    VfdtNode leaf = new VfdtNode(new int[] {3, 3, 2}, new int[] {0, 1, 2});
+    leaf.addExample(example1);
+    leaf.addExample(example2);
+    leaf.addExample(example3);
+    leaf.addExample(example4);
+    int[][][] before = leaf.getInstances();
+    long bytes = leaf.getCountBytes();
+
+    leaf.removeSplitFeatures(new int[] {1});
+    assertArrayEquals(
+        "The feature should not be a split feature anymore",
+        new int[] {0, 2},
+        leaf.getPossibleSplitFeatures());
+    int[][][] after = leaf.getInstances();
+    assertNull("The counts of the feature should be dropped", after[1]);
+    assertArrayEquals("The other counts should be kept", before[0], after[0]);
+    assertArrayEquals("The other counts should be kept", before[2], after[2]);
+    assertTrue("Dropping counts should free memory", leaf.getCountBytes() < bytes);
+
+    // the removed feature no longer counts in the prediction of the leaf
+    int[] example = new int[] {1, 1, 0};
+    double positives = before[0][1][1] + before[2][0][1];
+    double negatives = before[0][1][0] + before[2][0][0];
+    assertEquals(
+        "The leaf should predict with the counts of the remaining features",
+        positives / (positives + negatives),
+        leaf.getPredictionTable().predict(example),
+        0.0000001);
+
+    leaf.addExample(example1);
+    assertEquals(
+        "New examples should be counted for the remaining features",
+        before[0][1][1] + 1,
+        leaf.getInstances()[0][1][1]);
+  }
+
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void outOfRangeValueIsRejected() throws Exception {
+    VfdtNode leaf = new VfdtNode(new int[] {3, 3, 2}, new int[] {0, 1, 2});
+    // value 3 of feature 0 would land on the counts of feature 1
+    leaf.addExample(new int[] {3, 0, 0}, 1);
+  }
+
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void outOfRangeValueIsNotRouted() throws Exception {
+    Vfdt vfdt = twoLevelTree();
+    // value 3 of feature 0 would land on the slot of another node
+    vfdt.makePrediction(new int[] {3, 0, 0});
+  }
+
+  @Test
+  public void frozenTreeRejectsOutOfRangeValue() throws Exception {
+    Vfdt vfdt = twoLevelTree();
+    TreeSnapshot snapshot = vfdt.publishSnapshot();
+    assertTrue("The tree should be small enough to compile", vfdt.freeze());
+    int[] example = new int[] {3, 0, 0};
+    try {
+      vfdt.makePrediction(example);
+      fail("The compiled tree should reject a value without a child");
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // as the interpreted tree
+    }
+    try {
+      snapshot.makePrediction(example);
+      fail("A snapshot should reject a value without a child");
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // as the interpreted tree
+    }
+  }
+
+  /** Fills the batch with random examples whose class depends on a few features, with noise. */
+  private static void fillBatch(IntExampleBatch batch, int[] featureValues, Random random) {
+    for (int row = 0; row < batch.capacity(); row++) {
+      int[] values = batch.attributeValues[row];
+      for (int i = 0; i < featureValues.length; i++) values[i] = random.nextInt(featureValues[i]);
+      int classValue = (values[0] + values[1] * values[2] + values[3]) % 2;
+      batch.classValues[row] = random.nextInt(10) == 0 ? 1 - classValue : classValue;
+    }
+    batch.setSize(batch.capacity());
+  }
+
+  /** @return a tree on features with 3, 3 and 2 values whose root and some children are split */
+  private static Vfdt twoLevelTree() {
+    Vfdt vfdt = new Vfdt(new int[] {3, 3, 2}, 0.05, 0.05, 200);
+    Random random = new Random(1);
+    for (int i = 0; i < 20000; i++) {
+      Integer[] values = {random.nextInt(3), random.nextInt(3), random.nextInt(2)};
+      int classValue = values[2] == 0 && values[0] != 1 ? 0 : 1;
+      vfdt.update(new Example<Integer>(values, classValue));
+    }
+    boolean grandchildren = false;
+    for (VfdtNode child : vfdt.getRoot().getChildren()) {
+      if (child.getChildren() != null) grandchildren = true;
+    }
+    assertTrue("The tree should have two levels", grandchildren);
+    return vfdt;
+  }
+
+  private static void collectNodes(VfdtNode node, ArrayList<VfdtNode> nodes) {
+    nodes.add(node);
+    if (node.getChildren() != null) {
+      for (VfdtNode child : node.getChildren()) collectNodes(child, nodes);
+    }
+  }
 }